@@ -0,0 +1,145 @@
+package de.mheinzerling.mavenproxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Learns which repo serves a group and how well the repos answer. Later lookups for the group ask that repo first,
+ * repos that failed or were slow recently are asked last. The repo of each group (the path without artifact and
+ * version) or, for top-level groups, of each artifact is kept in <code>.proxy/affinity.properties</code>.
+ */
+final class Affinity {
+    private static final double WEIGHT = 0.2;
+
+    private final List<String> repos;
+    private final boolean enabled;
+    private final int slow;
+    private final Path file;
+    private final Map<String, String> groups = new ConcurrentHashMap<>();
+    private final Map<String, Health> health = new ConcurrentHashMap<>();
+
+    Affinity(Properties properties) {
+        this.repos = properties.remoteRepos;
+        this.enabled = properties.remoteAffinity;
+        this.slow = properties.remoteSlow;
+        this.file = properties.proxyState.resolve("affinity.properties");
+        if (!enabled) return;
+        try {
+            load();
+        } catch (IOException e) {
+            System.out.println("Ignoring affinity: " + e);
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) return;
+        java.util.Properties props = new java.util.Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            props.load(in);
+        }
+        for (String group : props.stringPropertyNames()) {
+            String repo = props.getProperty(group);
+            if (repos.contains(repo) && segments(group) >= 2) groups.put(group, repo); //ignore removed repos and top-level prefixes
+        }
+    }
+
+    /**
+     * @param path directory or file
+     * @return the repos in the order to ask them for the path
+     */
+    List<String> order(String path) {
+        if (!enabled) return repos;
+        String preferred = preferred(path);
+        List<String> ordered = new ArrayList<>(repos);
+        ordered.sort(Comparator.<String, Boolean>comparing(this::unhealthy).thenComparing(repo -> !repo.equals(preferred)));
+        return ordered;
+    }
+
+    private String preferred(String path) {
+        for (String prefix = parent(path); prefix != null; prefix = parent(prefix)) {
+            String repo = groups.get(prefix);
+            if (repo != null) return repo;
+        }
+        return null;
+    }
+
+    private boolean unhealthy(String repo) {
+        Health h = health.get(repo);
+        return h != null && (h.errors > 0.5 || h.latency > slow);
+    }
+
+    /**
+     * Remembers the repo for the group of a version directory or for the directory of a <code>maven-metadata.xml</code>
+     * file. A bare top-level segment like <code>/org/</code> is never learned, it would send every group below it to
+     * the repo; the artifact directory is learned instead.
+     */
+    void served(String path, String repo) {
+        if (!enabled) return;
+        String group = path.endsWith("maven-metadata.xml") ? parent(path) : parent(parent(path));
+        if (group != null && segments(group) < 2 && !path.endsWith("maven-metadata.xml")) group = parent(path);
+        if (group == null || segments(group) < 2 || repo.equals(groups.put(group, repo))) return;
+        try {
+            store();
+        } catch (IOException e) {
+            System.out.println("Can't store affinity: " + e);
+        }
+    }
+
+    private synchronized void store() throws IOException {
+        java.util.Properties props = new java.util.Properties();
+        props.putAll(groups);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        props.store(out, null);
+        Files.createDirectories(file.getParent());
+        Utils.writeAtomically(file, out.toByteArray());
+    }
+
+    /**
+     * Records the outcome of a request; a missing file is an answer, not a failure.
+     */
+    void answered(String repo, long millis, boolean failed) {
+        health.computeIfAbsent(repo, r -> new Health()).update(millis, failed);
+    }
+
+    /**
+     * @return the parent directory with a trailing slash; null for the root
+     */
+    private static String parent(String path) {
+        if (path == null) return null;
+        int end = path.endsWith("/") ? path.length() - 1 : path.length();
+        int pos = path.lastIndexOf('/', end - 1);
+        return pos <= 0 ? null : path.substring(0, pos + 1);
+    }
+
+    /**
+     * @return the number of directories in the path like 2 for <code>/org/example/</code>
+     */
+    private static int segments(String dir) {
+        int segments = 0;
+        for (int i = 1; i < dir.length(); i++) {
+            if (dir.charAt(i) == '/') segments++;
+        }
+        return segments;
+    }
+
+    /**
+     * Exponentially weighted averages, so old failures are forgotten.
+     */
+    private static final class Health {
+        volatile double errors;
+        volatile double latency = -1;
+
+        synchronized void update(long millis, boolean failed) {
+            errors = errors * (1 - WEIGHT) + (failed ? WEIGHT : 0);
+            latency = latency < 0 ? millis : latency * (1 - WEIGHT) + millis * WEIGHT;
+        }
+    }
+}
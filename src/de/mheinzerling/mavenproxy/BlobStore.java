@@ -0,0 +1,120 @@
+package de.mheinzerling.mavenproxy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressable storage for <code>proxy.store=cas</code>. Artifacts are stored once per SHA-1 in
+ * <code>.proxy/blobs</code>, no matter under how many paths they are published; only the checksum sidecars remain in
+ * the repository layout. The digest of each path is appended to <code>.proxy/digests</code>, which is compacted on
+ * startup.
+ */
+final class BlobStore {
+    private static final Pattern SHA1 = Pattern.compile("[0-9a-f]{40}");
+
+    private final Path local;
+    private final Path blobs;
+    private final Path log;
+    private final Map<String, String> digests = new ConcurrentHashMap<>();
+
+    BlobStore(Properties properties) {
+        this.local = properties.proxyLocation;
+        this.blobs = properties.proxyState.resolve("blobs");
+        this.log = properties.proxyState.resolve("digests");
+        try {
+            load();
+        } catch (IOException e) {
+            System.out.println("Ignoring digests: " + e);
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(log)) return;
+        try (BufferedReader reader = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                int space = line.indexOf(' ');
+                if (space > 0) digests.put(line.substring(space + 1), line.substring(0, space));
+            }
+        }
+        StringBuilder compacted = new StringBuilder();
+        digests.forEach((path, sha1) -> compacted.append(sha1).append(' ').append(path).append('\n'));
+        Utils.writeAtomically(log, compacted.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return all paths in the repository layout, that are stored as blob
+     */
+    List<Path> paths() {
+        List<Path> paths = new ArrayList<>();
+        for (String path : digests.keySet()) paths.add(local.resolve(path.substring(1)));
+        return paths;
+    }
+
+    /**
+     * @return the blob of the file; the file itself, if it isn't stored as blob
+     */
+    Path resolve(Path file) {
+        String sha1 = digests.get(key(file));
+        return sha1 == null ? file : blob(sha1);
+    }
+
+    /**
+     * @return true, if a blob with the SHA-1 is stored
+     */
+    boolean contains(String sha1) {
+        return sha1 != null && SHA1.matcher(sha1).matches() && Files.exists(blob(sha1));
+    }
+
+    /**
+     * Moves the verified download to the blob of its SHA-1, unless the blob exists already.
+     */
+    void store(Path part, Path file, String sha1) throws IOException {
+        Path blob = blob(sha1);
+        if (Files.exists(blob)) {
+            Files.delete(part);
+        } else {
+            Files.createDirectories(blob.getParent());
+            Files.move(part, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        add(file, sha1);
+    }
+
+    /**
+     * Publishes a stored blob under another path.
+     */
+    void add(Path file, String sha1) {
+        String path = key(file);
+        digests.put(path, sha1);
+        synchronized (this) {
+            try {
+                Files.createDirectories(log.getParent());
+                try (Writer writer = Files.newBufferedWriter(log, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    writer.write(sha1 + " " + path + "\n");
+                }
+            } catch (IOException e) {
+                System.out.println("Can't persist digest: " + e);
+            }
+        }
+    }
+
+    Path blob(String sha1) {
+        return blobs.resolve(sha1.substring(0, 2)).resolve(sha1);
+    }
+
+    private String key(Path file) {
+        StringBuilder key = new StringBuilder();
+        for (Path segment : local.relativize(file.toAbsolutePath())) key.append('/').append(segment);
+        return key.toString();
+    }
+}
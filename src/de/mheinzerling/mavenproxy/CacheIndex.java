@@ -0,0 +1,190 @@
+package de.mheinzerling.mavenproxy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * In-memory view of the cached directories and files, so checking the cache doesn't need file system calls.
+ * Directories are keyed like request paths (<code>/org/example/demo/1.0/</code>). The index is built with a
+ * parallel walk on startup or, with <code>proxy.index.snapshot=true</code>, read from the snapshot written on
+ * shutdown. Files unknown to the index are looked up in the file system, so files added behind the proxy's back
+ * are found nevertheless.
+ */
+final class CacheIndex {
+    private final Path root;
+    private final Path snapshot;
+    private final Map<String, Set<String>> directories = new ConcurrentHashMap<>();
+
+    CacheIndex(Path root, Path snapshot) {
+        this.root = root;
+        this.snapshot = snapshot;
+    }
+
+    void load(boolean fromSnapshot) throws IOException {
+        directories.clear();
+        if (fromSnapshot && Files.exists(snapshot)) {
+            readSnapshot();
+            System.out.println("Index loaded from " + snapshot + ": " + directories.size() + " directories");
+            return;
+        }
+        if (!Files.isDirectory(root)) return;
+        long start = System.currentTimeMillis();
+        ForkJoinPool.commonPool().invoke(new Walk(root));
+        System.out.println("Index built in " + (System.currentTimeMillis() - start) + "ms: " + directories.size() + " directories");
+    }
+
+    private final class Walk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+
+        Walk(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            List<Walk> children = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    if (Files.isDirectory(path)) {
+                        if (!path.getFileName().toString().startsWith(".")) children.add(new Walk(path));
+                    } else {
+                        add(path);
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Can't index " + directory + ": " + e);
+            }
+            invokeAll(children);
+        }
+    }
+
+    private void readSnapshot() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(snapshot, StandardCharsets.UTF_8)) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                String[] parts = line.split("\t");
+                Set<String> files = files(parts[0]);
+                for (int i = 1; i < parts.length; i++) {
+                    files.add(parts[i]);
+                }
+            }
+        }
+    }
+
+    void writeSnapshot() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, Set<String>> directory : directories.entrySet()) {
+            if (directory.getValue().isEmpty()) continue;
+            content.append(directory.getKey());
+            for (String file : directory.getValue()) {
+                content.append('\t').append(file);
+            }
+            content.append('\n');
+        }
+        Files.createDirectories(snapshot.getParent());
+        Utils.writeAtomically(snapshot, content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Answers from the index, if it knows cached files in the directory. Otherwise the file system is checked, to
+     * notice files added behind the proxy's back.
+     *
+     * @return true, if the directory contains no cached file
+     */
+    boolean missing(Path directory) throws IOException {
+        String dir = key(directory);
+        if (dir == null) return true;
+        Set<String> files = directories.get(dir);
+        if (files != null && !files.isEmpty()) return false;
+        if (!Files.isDirectory(directory)) return true;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                if (!Files.isDirectory(path)) add(path);
+            }
+        }
+        files = directories.get(dir);
+        return files == null || files.isEmpty();
+    }
+
+    /**
+     * Like {@link #missing(Path)}, the file system is only checked, if the index doesn't know the file.
+     */
+    boolean exists(Path file) {
+        String dir = key(file.getParent());
+        if (dir == null) return false;
+        Set<String> files = directories.get(dir);
+        String name = file.getFileName().toString();
+        if (files != null && files.contains(name)) return true;
+        if (partial(name) || !Files.exists(file)) return false;
+        add(file);
+        return true;
+    }
+
+    /**
+     * Adds a complete file. Temporary and partial files are ignored, as well as files outside of the cache.
+     */
+    void add(Path file) {
+        String name = file.getFileName().toString();
+        if (partial(name)) return;
+        String dir = key(file.getParent());
+        if (dir != null) files(dir).add(name);
+    }
+
+    /**
+     * Adds the artifact and its checksum sidecars.
+     */
+    void addArtifact(Path data) {
+        add(data);
+        for (Checksum checksum : Checksum.values()) {
+            add(checksum.sidecar(data));
+        }
+    }
+
+    void remove(Path file) {
+        String dir = key(file.getParent());
+        if (dir == null) return;
+        Set<String> files = directories.get(dir);
+        if (files != null) files.remove(file.getFileName().toString());
+    }
+
+    void removeDirectory(Path directory) {
+        String dir = key(directory);
+        if (dir != null) directories.remove(dir);
+    }
+
+    void clear() {
+        directories.clear();
+    }
+
+    private static boolean partial(String name) {
+        return name.endsWith(".part") || name.endsWith(".tmp");
+    }
+
+    private Set<String> files(String dir) {
+        return directories.computeIfAbsent(dir, d -> ConcurrentHashMap.newKeySet());
+    }
+
+    private String key(Path directory) {
+        Path absolute = directory.toAbsolutePath();
+        if (!absolute.startsWith(root)) return null;
+        StringBuilder key = new StringBuilder("/");
+        for (Path segment : root.relativize(absolute)) {
+            String name = segment.toString();
+            if (name.startsWith(".")) return null; //internal state
+            if (!name.isEmpty()) key.append(name).append('/');
+        }
+        return key.toString();
+    }
+}
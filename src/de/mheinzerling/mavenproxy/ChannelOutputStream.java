@@ -0,0 +1,18 @@
+package de.mheinzerling.mavenproxy;
+
+import java.io.BufferedOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Buffered stream, that exposes the underlying channel, so files can be transferred without copying them
+ * through the heap.
+ */
+final class ChannelOutputStream extends BufferedOutputStream {
+    final WritableByteChannel channel;
+
+    ChannelOutputStream(WritableByteChannel channel) {
+        super(Channels.newOutputStream(channel));
+        this.channel = channel;
+    }
+}
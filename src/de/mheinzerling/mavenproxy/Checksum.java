@@ -0,0 +1,76 @@
+package de.mheinzerling.mavenproxy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Checksum files served for every artifact. They are stored as sidecars next to the artifact, so a request
+ * for one never reads the artifact itself.
+ */
+enum Checksum {
+    SHA1("SHA-1", ".sha1"),
+    SHA256("SHA-256", ".sha256"),
+    SHA512("SHA-512", ".sha512"),
+    MD5("MD5", ".md5");
+
+    final String algorithm;
+    final String extension;
+
+    Checksum(String algorithm, String extension) {
+        this.algorithm = algorithm;
+        this.extension = extension;
+    }
+
+    /**
+     * @return the checksum, the file name stands for; null for any other file
+     */
+    static Checksum of(String file) {
+        for (Checksum checksum : values()) {
+            if (file.endsWith(checksum.extension)) return checksum;
+        }
+        return null;
+    }
+
+    /**
+     * @return the name of the file, the checksum file belongs to; the file itself, if it is no checksum file
+     */
+    static String data(String file) {
+        Checksum checksum = of(file);
+        return checksum == null ? file : file.substring(0, file.length() - checksum.extension.length());
+    }
+
+    Path sidecar(Path data) {
+        return data.resolveSibling(data.getFileName() + extension);
+    }
+
+    Path data(Path sidecar) {
+        String name = sidecar.getFileName().toString();
+        return sidecar.resolveSibling(name.substring(0, name.length() - extension.length()));
+    }
+
+    static String[] algorithms() {
+        String[] result = new String[values().length];
+        for (Checksum checksum : values()) {
+            result[checksum.ordinal()] = checksum.algorithm;
+        }
+        return result;
+    }
+
+    /**
+     * Computes all checksums in a single pass and stores them as sidecars.
+     *
+     * @return the hex encoded checksums in declaration order
+     */
+    static String[] store(Path data) throws IOException {
+        String[] hashes = Utils.checksums(data, algorithms());
+        store(data, hashes);
+        return hashes;
+    }
+
+    static void store(Path data, String[] hashes) throws IOException {
+        for (Checksum checksum : values()) {
+            Utils.writeAtomically(checksum.sidecar(data), hashes[checksum.ordinal()].getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package de.mheinzerling.mavenproxy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Matches file names against <code>remote.exclude.extensions</code> (suffixes) and
+ * <code>remote.exclude.classifiers</code> (substrings) in a single pass. All patterns are compiled into one
+ * Aho-Corasick automaton, so the cost per name doesn't grow with the number of patterns.
+ */
+final class Excludes {
+    enum Match {
+        NONE,
+        EXTENSION,
+        CLASSIFIER
+    }
+
+    /** character to column of the transition table; 0 for characters, that don't occur in any pattern */
+    private final int[] columns;
+    private final int width;
+    private final int[] transitions;
+    /** an extension ends in this state */
+    private final boolean[] extension;
+    /** a classifier ends in this state */
+    private final boolean[] classifier;
+
+    Excludes(List<String> extensions, List<String> classifiers) {
+        int maxChar = 0;
+        for (List<String> patterns : Arrays.asList(extensions, classifiers)) {
+            for (String pattern : patterns) {
+                for (int i = 0; i < pattern.length(); i++) maxChar = Math.max(maxChar, pattern.charAt(i));
+            }
+        }
+        columns = new int[maxChar + 1];
+        int width = 1;
+        for (List<String> patterns : Arrays.asList(extensions, classifiers)) {
+            for (String pattern : patterns) {
+                for (int i = 0; i < pattern.length(); i++) {
+                    if (columns[pattern.charAt(i)] == 0) columns[pattern.charAt(i)] = width++;
+                }
+            }
+        }
+        this.width = width;
+
+        //trie
+        List<int[]> trie = new ArrayList<>();
+        trie.add(new int[width]);
+        List<Boolean> extensionEnds = new ArrayList<>();
+        List<Boolean> classifierEnds = new ArrayList<>();
+        extensionEnds.add(false);
+        classifierEnds.add(false);
+        for (int kind = 0; kind < 2; kind++) {
+            for (String pattern : kind == 0 ? extensions : classifiers) {
+                if (pattern.isEmpty()) continue;
+                int state = 0;
+                for (int i = 0; i < pattern.length(); i++) {
+                    int column = columns[pattern.charAt(i)];
+                    if (trie.get(state)[column] == 0) {
+                        trie.get(state)[column] = trie.size();
+                        trie.add(new int[width]);
+                        extensionEnds.add(false);
+                        classifierEnds.add(false);
+                    }
+                    state = trie.get(state)[column];
+                }
+                if (kind == 0) extensionEnds.set(state, true);
+                else classifierEnds.set(state, true);
+            }
+        }
+
+        //complete the transitions along the failure links, breadth first
+        int states = trie.size();
+        transitions = new int[states * width];
+        extension = new boolean[states];
+        classifier = new boolean[states];
+        int[] failure = new int[states];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int column = 1; column < width; column++) {
+            int next = trie.get(0)[column];
+            transitions[column] = next;
+            if (next != 0) queue.add(next);
+        }
+        for (int state = 0; state < states; state++) {
+            extension[state] = extensionEnds.get(state);
+            classifier[state] = classifierEnds.get(state);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            extension[state] |= extension[failure[state]];
+            classifier[state] |= classifier[failure[state]];
+            for (int column = 1; column < width; column++) {
+                int next = trie.get(state)[column];
+                if (next == 0) {
+                    transitions[state * width + column] = transitions[failure[state] * width + column];
+                } else {
+                    failure[next] = transitions[failure[state] * width + column];
+                    transitions[state * width + column] = next;
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    /**
+     * Extensions take precedence over classifiers.
+     */
+    Match match(CharSequence name) {
+        return match(name, 0, name.length());
+    }
+
+    Match match(CharSequence text, int start, int end) {
+        int state = 0;
+        boolean classified = false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            state = transitions[state * width + (c < columns.length ? columns[c] : 0)];
+            classified |= classifier[state];
+        }
+        if (extension[state]) return Match.EXTENSION;
+        return classified ? Match.CLASSIFIER : Match.NONE;
+    }
+}
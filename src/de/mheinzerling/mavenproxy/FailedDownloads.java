@@ -0,0 +1,80 @@
+package de.mheinzerling.mavenproxy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers files, whose download failed, so they are loaded again on the next request instead of being reported
+ * missing. A download, that broke off, keeps its partial file and is resumed; after a refused connection, an error
+ * status or a hash mismatch it starts over. The changes are appended to <code>.proxy/failed.log</code>, which is
+ * compacted on startup.
+ */
+final class FailedDownloads {
+    private final Path root;
+    private final Path log;
+    private final Set<String> files = ConcurrentHashMap.newKeySet();
+
+    FailedDownloads(Properties properties) {
+        this.root = properties.proxyLocation.toAbsolutePath();
+        this.log = properties.proxyState.resolve("failed.log");
+        try {
+            load();
+        } catch (IOException e) {
+            System.out.println("Ignoring failed downloads: " + e);
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(log)) return;
+        try (BufferedReader reader = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                if (line.startsWith("+ ")) files.add(line.substring(2));
+                else if (line.startsWith("- ")) files.remove(line.substring(2));
+            }
+        }
+        StringBuilder compacted = new StringBuilder();
+        for (String file : files) compacted.append("+ ").append(file).append('\n');
+        Utils.writeAtomically(log, compacted.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    boolean contains(Path file) {
+        return files.contains(key(file));
+    }
+
+    synchronized void add(Path file) {
+        if (files.add(key(file))) append("+ " + key(file));
+    }
+
+    /**
+     * The file was downloaded or no repo has it anymore.
+     */
+    synchronized void remove(Path file) {
+        if (files.remove(key(file))) append("- " + key(file));
+    }
+
+    private String key(Path file) {
+        return root.relativize(file.toAbsolutePath()).toString().replace('\\', '/');
+    }
+
+    private void append(String line) {
+        try {
+            Files.createDirectories(log.getParent());
+            try (Writer writer = Files.newBufferedWriter(log, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writer.write(line + "\n");
+            }
+        } catch (IOException e) {
+            System.out.println("Can't persist failed downloads: " + e);
+        }
+    }
+
+    void clear() {
+        files.clear();
+    }
+}
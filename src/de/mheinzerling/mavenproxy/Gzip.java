@@ -0,0 +1,104 @@
+package de.mheinzerling.mavenproxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Precompressed variants of text files for <code>proxy.gzip=true</code>. They are built once, when a file is cached,
+ * and stored in <code>.proxy/gzip</code>. Jars and other compressed formats are left alone; a variant is only kept,
+ * if it saves at least a tenth of the size.
+ */
+final class Gzip {
+    private static final String[] TEXT = {".pom", ".module", ".xml", ".json", ".txt", ".properties"};
+
+    private final Path local;
+    private final Path variants;
+
+    Gzip(Properties properties) {
+        this.local = properties.proxyLocation;
+        this.variants = properties.proxyState.resolve("gzip");
+    }
+
+    /**
+     * @return the compressed variant of the cached file; null, if there is none
+     */
+    Path variant(Path file) {
+        if (!compressible(file.getFileName().toString())) return null;
+        Path variant = variants.resolve(local.relativize(file.toAbsolutePath()) + ".gz");
+        return Files.exists(variant) ? variant : null;
+    }
+
+    /**
+     * Builds the compressed variant of a newly cached file.
+     *
+     * @param content the file itself or its blob
+     */
+    void store(Path file, Path content) {
+        if (!compressible(file.getFileName().toString())) return;
+        try {
+            byte[] compressed = compress(Files.readAllBytes(content));
+            if (compressed == null) return;
+            Path variant = variants.resolve(local.relativize(file.toAbsolutePath()) + ".gz");
+            Files.createDirectories(variant.getParent());
+            Utils.writeAtomically(variant, compressed);
+        } catch (IOException e) {
+            System.out.println("Can't compress " + file + ": " + e);
+        }
+    }
+
+    static boolean compressible(String name) {
+        for (String extension : TEXT) {
+            if (name.endsWith(extension)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the content compressed with the best level; null, if it saves less than a tenth
+     */
+    static byte[] compress(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(content);
+        }
+        return out.size() > content.length * 9L / 10 ? null : out.toByteArray();
+    }
+
+    /**
+     * An explicit <code>gzip</code> takes precedence over <code>*</code>; <code>q=0</code> rejects an encoding.
+     *
+     * @return true, if the client accepts <code>content-encoding: gzip</code>
+     */
+    static boolean accepted(Request request) {
+        final String accept = request.header("accept-encoding");
+        if (accept == null) return false;
+        boolean any = false;
+        for (String coding : accept.toLowerCase(Locale.ROOT).split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            boolean acceptable = true;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        acceptable = Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        //ignore, like the whole parameter
+                    }
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) return acceptable;
+            if (name.equals("*")) any = acceptable;
+        }
+        return any;
+    }
+}
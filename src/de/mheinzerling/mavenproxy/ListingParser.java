@@ -0,0 +1,87 @@
+package de.mheinzerling.mavenproxy;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Extracts the entries of a directory listing. Directories are reported with a trailing slash.
+ */
+final class ListingParser {
+    private static final String LINK = "<a href=\"";
+    private static final String LINK_END = "</a>";
+
+    private ListingParser() {
+    }
+
+    /**
+     * Scans the HTML index page of a repo for the first link of each line. Entries with a shortened link text are
+     * only accepted, if the text is a prefix of the link.
+     */
+    static void html(String page, Consumer<String> entries) {
+        for (int from = 0; ; ) {
+            int start = page.indexOf(LINK, from);
+            if (start < 0) return;
+            int lineEnd = page.indexOf('\n', start);
+            if (lineEnd < 0) lineEnd = page.length();
+            from = lineEnd;
+
+            int hrefStart = start + LINK.length();
+            int hrefEnd = page.indexOf('"', hrefStart);
+            if (hrefEnd <= hrefStart || hrefEnd > lineEnd) continue;
+            int textStart = page.indexOf('>', hrefEnd) + 1;
+            if (textStart <= 0 || textStart > lineEnd) continue;
+            int textEnd = page.indexOf(LINK_END, textStart);
+            if (textEnd <= textStart || textEnd > lineEnd) continue;
+
+            int prefix = Math.max(0, textEnd - textStart - 3); //long names are shortened to "name..>"
+            if (prefix > hrefEnd - hrefStart || !page.regionMatches(hrefStart, page, textStart, prefix)) continue;
+            entries.accept(page.substring(hrefStart, hrefEnd));
+        }
+    }
+
+    /**
+     * One entry per line.
+     */
+    static void plain(String page, Consumer<String> entries) {
+        for (String line : page.split("\r?\n")) {
+            String entry = line.trim();
+            if (!entry.isEmpty()) entries.accept(entry);
+        }
+    }
+
+    /**
+     * Accepts an array of entries or an object describing the directory, whose entries are in <code>children</code>,
+     * <code>files</code> or <code>entries</code>; the directory itself is no entry. An entry is a name or an object
+     * with <code>name</code> or <code>uri</code>. Objects flagged as directory by <code>folder</code>,
+     * <code>directory</code> or <code>type</code> are reported with a trailing slash.
+     */
+    static void json(String page, Consumer<String> entries) {
+        Object root = Json.parse(page);
+        if (root instanceof List) {
+            collect((List<?>) root, entries);
+        } else if (root instanceof Map) {
+            for (String children : new String[]{"children", "files", "entries"}) {
+                Object list = ((Map<?, ?>) root).get(children);
+                if (list instanceof List) collect((List<?>) list, entries);
+            }
+        }
+    }
+
+    private static void collect(List<?> list, Consumer<String> entries) {
+        for (Object element : list) {
+            if (element instanceof String) {
+                entries.accept((String) element);
+            } else if (element instanceof Map) {
+                Map<?, ?> object = (Map<?, ?>) element;
+                Object name = object.containsKey("name") ? object.get("name") : object.get("uri");
+                if (!(name instanceof String)) continue;
+                String entry = ((String) name).substring(((String) name).lastIndexOf('/', ((String) name).length() - 2) + 1);
+                boolean directory = Boolean.TRUE.equals(object.get("folder")) || Boolean.TRUE.equals(object.get("directory"))
+                        || "directory".equalsIgnoreCase(String.valueOf(object.get("type")))
+                        || "folder".equalsIgnoreCase(String.valueOf(object.get("type")));
+                entries.accept(directory && !entry.endsWith("/") ? entry + "/" : entry);
+            }
+        }
+    }
+}
@@ -1,17 +1,47 @@
 package de.mheinzerling.mavenproxy;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class Main {
     public static void main(String[] args) throws IOException {
         final Properties properties = new Properties(args.length > 0 ? args[0] : null);
+        UrlConnectionUpstream.configure(properties);
+        final Proxy proxy = new Proxy(properties);
+
+        switch (properties.proxyServer) {
+            case "blocking":
+                blocking(properties, proxy);
+                break;
+            case "nio":
+                nio(properties, proxy);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown proxy.server: " + properties.proxyServer);
+        }
+    }
 
+    private static void nio(Properties properties, Proxy proxy) throws IOException {
+        final NioServer server = new NioServer(properties, proxy);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.print("Closing Server..");
+            server.close();
+            proxy.close();
+            System.out.println("done. " + proxy.statistics());
+        }));
+
+        System.out.println("Listening (nio)...");
+        server.run();
+    }
+
+    private static void blocking(Properties properties, Proxy proxy) throws IOException {
         final ExecutorService executor = Executors.newFixedThreadPool(properties.proxyThreads);
-        final ServerSocket serverSocket = new ServerSocket(properties.proxyPort);
+        final ServerSocketChannel serverSocket = ServerSocketChannel.open(); //channel backed sockets allow zero-copy
+        serverSocket.bind(new InetSocketAddress(properties.proxyPort));
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.print("Closing Server..");
             executor.shutdown();
@@ -20,14 +50,14 @@ public class Main {
             } catch (IOException e) {
                 //ignore
             }
-            System.out.print("done.");
+            proxy.close();
+            System.out.println("done. " + proxy.statistics());
         }));
 
-        final Proxy proxy = new Proxy(properties);
         System.out.println("Listening...");
         //noinspection InfiniteLoopStatement
         while (true) {
-            Socket socket = serverSocket.accept();
+            Socket socket = serverSocket.accept().socket();
             executor.submit(() -> {
                 try {
                     //noinspection TryFinallyCanBeTryWithResources
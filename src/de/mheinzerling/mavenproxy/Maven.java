@@ -1,16 +1,23 @@
 package de.mheinzerling.mavenproxy;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
-import static de.mheinzerling.mavenproxy.Utils.checksum;
 import static de.mheinzerling.mavenproxy.Utils.loadToFile;
 import static de.mheinzerling.mavenproxy.Utils.loadToString;
 
@@ -20,73 +27,292 @@ public class Maven {
     public static final String GRADLE_PLUGINS = "https://plugins.gradle.org/m2";
 
     private final Properties properties;
+    private final Scheduler scheduler;
+    private final MetadataCache metadataCache;
+    private final CacheIndex index;
+    private final Upstream upstream;
+    private final Probe probe;
+    private final SharedCache shared;
+    private final BlobStore blobs;
+    private final Gzip gzip;
+    private final FailedDownloads failed;
+    private volatile Consumer<Path> stored = path -> {
+    };
 
     public Maven(Properties properties) {
+        this(properties, new CacheIndex(properties.proxyLocation, properties.proxyState.resolve("index")));
+    }
+
+    Maven(Properties properties, CacheIndex index) {
+        this(properties, index, new UrlConnectionUpstream(properties));
+    }
+
+    Maven(Properties properties, CacheIndex index, Upstream upstream) {
         this.properties = properties;
+        this.index = index;
+        this.upstream = upstream;
+        this.scheduler = new Scheduler(properties.remoteThreads, properties.remoteThreadsRepo);
+        this.probe = new Probe(properties, scheduler, new Affinity(properties));
+        this.metadataCache = new MetadataCache(properties, scheduler, upstream, probe);
+        this.shared = properties.proxyShared == null ? null : new SharedCache(properties);
+        this.gzip = properties.proxyGzip ? new Gzip(properties) : null;
+        this.failed = new FailedDownloads(properties);
+        switch (properties.proxyStore) {
+            case "mirror":
+                this.blobs = null;
+                break;
+            case "cas":
+                this.blobs = new BlobStore(properties);
+                for (Path path : blobs.paths()) index.add(path);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown proxy.store: " + properties.proxyStore);
+        }
+    }
+
+    /**
+     * @return the file, that holds the content of the cached file; the blob for <code>proxy.store=cas</code>
+     */
+    Path content(Path file) {
+        return blobs == null ? file : blobs.resolve(file);
+    }
+
+    /**
+     * @return true, if the last download of the file failed and it wasn't loaded since
+     */
+    boolean failed(Path file) {
+        return failed.contains(file);
+    }
+
+    /**
+     * Forgets the failed downloads, after the cache was deleted.
+     */
+    void clear() {
+        failed.clear();
+    }
+
+    /**
+     * @return the compressed variant of the cached file; null, if there is none
+     */
+    Path gzipped(Path file) {
+        return gzip == null ? null : gzip.variant(file);
+    }
+
+    /**
+     * @return the directory of the version like <code>/org/example/demo/1.0/</code>
+     */
+    static String directory(String groupId, String artifactId, String version) {
+        return "/" + groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/";
     }
 
     public MavenListing index(String dir) throws IOException {
-        for (String repo : properties.remoteRepos) {
+        MavenListing found = probe.first(dir, repo -> {
             MavenListing listing = new MavenListing(repo, dir);
-            listing.fetch(properties);
-            if (!listing.isEmpty()) return listing;
-        }
-        throw new IOException("Index missing in all repos for " + dir);
+            listing.fetch(upstream, properties);
+            return listing.isEmpty() ? null : listing;
+        });
+        if (found != null) return found;
+        throw new FileNotFoundException("Index missing in all repos for " + dir);
     }
 
     public void loadAll(MavenListing source, Path target) throws IOException {
+        Map<String, CompletableFuture<Void>> downloads = load(source, target, null, null, Scheduler.Priority.FILL);
+        try {
+            CompletableFuture.allOf(downloads.values().toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            //ignore, like a failed download
+        }
+    }
+
+    /**
+     * Schedules the download of all files of the listing without waiting for them. The requested file is loaded first,
+     * the others in the background.
+     *
+     * @param requested  file a client waits for, may be null
+     * @param tee        receives the requested file while it is downloaded, may be null
+     * @param background priority of the other files
+     * @return the pending download for each file
+     */
+    Map<String, CompletableFuture<Void>> load(MavenListing source, Path target, String requested, Utils.Tee tee, Scheduler.Priority background) throws IOException {
         String sourceDirectoryUrl = source.getRepo() + source.getPath();
         System.out.println("Loading " + sourceDirectoryUrl + "...");
         Path targetDirectory = target.resolve(source.getPath().substring(1));
         Files.createDirectories(targetDirectory);
 
-        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(properties.remoteThreads);
+        String first = requested == null ? null : Checksum.data(requested);
+        Map<String, CompletableFuture<Void>> downloads = new LinkedHashMap<>();
+        if (source.getFiles().contains(first)) {
+            downloads.put(first, scheduler.submit(source.getRepo(), Scheduler.Priority.REQUESTED, () -> {
+                download(sourceDirectoryUrl, targetDirectory, first, first.equals(requested) ? tee : null);
+                return null;
+            }));
+        }
         for (String file : source.getFiles()) {
-            executor.submit(() -> download(sourceDirectoryUrl, targetDirectory, file));
+            if (file.equals(first)) continue;
+            downloads.put(file, scheduler.submit(source.getRepo(), background, () -> {
+                download(sourceDirectoryUrl, targetDirectory, file, null);
+                return null;
+            }));
+        }
+        if (shared != null) {
+            CompletableFuture.allOf(downloads.values().toArray(new CompletableFuture<?>[0])).thenRun(() -> shared.complete(targetDirectory));
         }
+        return downloads;
+    }
 
-        executor.shutdown();
-        try {
-            //noinspection ResultOfMethodCallIgnored
-            executor.awaitTermination(5, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+    /**
+     * Takes the directory from the shared cache, if another project mirrored it completely.
+     *
+     * @return false, if the shared cache doesn't have the directory
+     */
+    boolean fromShared(Path targetDirectory) throws IOException {
+        if (shared == null) return false;
+        List<Path> files = shared.materialiseDirectory(targetDirectory);
+        for (Path file : files) index.add(file);
+        for (Path file : files) {
+            if (gzip != null) gzip.store(file, file);
+            stored.accept(file);
         }
+        return !files.isEmpty();
+    }
+
+    /**
+     * A client waits for the download, start it before any background download.
+     */
+    void prioritise(CompletableFuture<?> download) {
+        scheduler.raise(download, Scheduler.Priority.REQUESTED);
     }
 
-    private static void download(String sourceDirectoryUrl, Path targetDirectory, String file) {
+    /**
+     * Loads a single file for <code>proxy.fill=lazy</code> from the shared cache or the first repo, that has its SHA-1,
+     * and verifies it against that SHA-1. A failed download is thrown and remembered, so it isn't mistaken for a missing
+     * file; if it broke off, its partial file is kept to resume it.
+     *
+     * @param dir      directory of the file like <code>/org/example/demo/1.0/</code>
+     * @param tee      receives the file while it is downloaded, may be null
+     * @param priority of the download
+     * @return false, if no repo has the SHA-1 of the file
+     */
+    boolean fetch(String dir, Path targetDirectory, String file, Utils.Tee tee, Scheduler.Priority priority) throws IOException {
+        Path path = targetDirectory.resolve(file);
+        if (shared != null && shared.materialise(path)) {
+            index.addArtifact(path);
+            if (gzip != null) gzip.store(path, path);
+            stored.accept(path);
+            return true;
+        }
+        Map.Entry<String, String> found = probe.first(dir, repo -> {
+            String sha1 = loadToString(upstream, repo + dir + file + ".sha1");
+            return sha1 == null ? null : new AbstractMap.SimpleImmutableEntry<>(repo, sha1);
+        });
+        if (found == null) {
+            failed.remove(path);
+            return false;
+        }
+        System.out.println("Loading " + found.getKey() + dir + file + "...");
+        Files.createDirectories(targetDirectory);
         try {
-            String sourceUrl = sourceDirectoryUrl + file;
-            Path path = targetDirectory.resolve(file);
-            loadToFile(sourceUrl, path);
-            String remoteHash = loadToString(sourceUrl + ".sha1");
-            String localHash = checksum(path, "SHA-1");
-            if (!Objects.equals(remoteHash, localHash)) {
-                throw new AssertionError("Hash mismatch for " + path + "; remote: " + remoteHash + ", local: " + localHash);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-            try {
-                Utils.deleteDirectory(targetDirectory);
-            } catch (IOException ex) {
-                throw new AssertionError(ex);
-            }
+            Proxy.await(scheduler.submit(found.getKey(), priority, () -> {
+                download(found.getKey() + dir, targetDirectory, file, tee, found.getValue());
+                return null;
+            }));
+            return true;
+        } catch (InterruptedIOException e) {
+            failed.add(path);
+            throw e;
+        } catch (IOException | AssertionError e) {
+            System.out.println("Loading " + found.getKey() + dir + file + " failed: " + e);
+            failed.add(path);
+            throw e;
+        }
+    }
 
+    /**
+     * Downloads the file as part of a directory. A failed download is remembered and retried on the next request for
+     * the file; if it broke off, it is resumed from its partial file.
+     */
+    private void download(String sourceDirectoryUrl, Path targetDirectory, String file, Utils.Tee tee) throws IOException {
+        try {
+            download(sourceDirectoryUrl, targetDirectory, file, tee, null);
+        } catch (IOException | AssertionError e) {
+            System.out.println("Loading " + sourceDirectoryUrl + file + " failed: " + e);
+            failed.add(targetDirectory.resolve(file));
+            throw e;
         }
     }
 
-    public boolean copy(String file, OutputStream outputStream) throws IOException {
-        for (String repo : properties.remoteRepos) {
-
-            String content = loadToString(repo + file);
-            if (content != null) {
-                final String responseString = "HTTP/1.1 200 OK\r\n" +
-                        "content-length: " + content.length() + "\r\n\r\n";
-                outputStream.write(responseString.getBytes(StandardCharsets.UTF_8));
-                outputStream.write(content.getBytes(StandardCharsets.UTF_8));
-                return true;
+    /**
+     * Downloads the file and verifies it against the remote SHA-1. If the verification fails, the file is not cached,
+     * even if it was already streamed to the tee.
+     *
+     * @param remoteHash the SHA-1 of the remote repo; null to load it after the download
+     */
+    private void download(String sourceDirectoryUrl, Path targetDirectory, String file, Utils.Tee tee, String remoteHash) throws IOException {
+        String sourceUrl = sourceDirectoryUrl + file;
+        Path path = targetDirectory.resolve(file);
+        if (blobs != null) {
+            if (remoteHash == null) remoteHash = loadToString(upstream, sourceUrl + ".sha1");
+            if (blobs.contains(remoteHash)) { //same content under another path, no need to download it again
+                Checksum.store(path, Utils.checksums(blobs.blob(remoteHash), Checksum.algorithms()));
+                blobs.add(path, remoteHash);
+                added(path);
+                return;
             }
         }
-        return false;
+        Path part = targetDirectory.resolve(file + ".part"); //never serve a partial download
+        String[] hashes = loadToFile(upstream, sourceUrl, part, tee, properties.remoteRetries, Checksum.algorithms());
+        if (remoteHash == null) remoteHash = loadToString(upstream, sourceUrl + ".sha1");
+        String localHash = hashes[Checksum.SHA1.ordinal()];
+        if (!Objects.equals(remoteHash, localHash)) {
+            Files.delete(part);
+            throw new AssertionError("Hash mismatch for " + path + "; remote: " + remoteHash + ", local: " + localHash);
+        }
+        if (blobs != null) blobs.store(part, path, localHash);
+        else Files.move(part, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Checksum.store(path, hashes);
+        added(path);
+    }
+
+    private void added(Path path) {
+        failed.remove(path);
+        index.addArtifact(path);
+        if (shared != null) shared.publish(path, content(path));
+        if (gzip != null) gzip.store(path, content(path));
+        stored.accept(path);
+    }
+
+    /**
+     * @param listener called for every file, that was added to the cache
+     */
+    void onStored(Consumer<Path> listener) {
+        this.stored = listener;
+    }
+
+    public boolean copy(String file, OutputStream outputStream) throws IOException {
+        byte[] content = metadata(file);
+        if (content == null) return false;
+        outputStream.write(Response.ok(content.length).getBytes());
+        outputStream.write(content);
+        return true;
+    }
+
+    /**
+     * @return the cached file or the file from the first repo, that has it; null if every repo answered 404 or 410
+     */
+    public byte[] metadata(String file) throws IOException {
+        return metadataCache.get(file);
+    }
+
+    /**
+     * @return the compressed variant of the cached file; null, if there is none
+     */
+    byte[] gzippedMetadata(String file) throws IOException {
+        return metadataCache.gzipped(file);
+    }
+
+    boolean hasMetadata(String file) {
+        return metadataCache.contains(file);
     }
 }
@@ -1,20 +1,17 @@
 package de.mheinzerling.mavenproxy;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public class MavenListing {
-    private static final Pattern fileLink = Pattern.compile("<a href=\"(.+?)\".*?>(.+?)</a>");
-
     private final String repo;
     private final String path;
     private final List<String> files = new ArrayList<>();
@@ -30,36 +27,49 @@ public class MavenListing {
         return files.isEmpty();
     }
 
-    public void fetch(Properties properties) throws IOException {
-        URLConnection conn = asURL().openConnection();
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(conn.getInputStream()))) {
-            for (String line; (line = reader.readLine()) != null; ) {
-                Matcher matcher = fileLink.matcher(line);
-                if (!matcher.find()) continue;
-                String href = matcher.group(1);
-                String text = matcher.group(2);
-                if (!(href.startsWith(text.substring(0, text.length() - 3)))) continue;
-                if (href.endsWith("/")) continue;
-                else if (properties.remoteExcludeExtensions.stream().anyMatch(href::endsWith)) {
-                    excludedByExtension.add(href);
-                    continue;
-                } else if (properties.remoteExcludeClassifiers.stream().anyMatch(href::contains)) {
-                    excludedByClassifier.add(href);
-                    continue;
-                }
-                files.add(href);
-            }
+    /**
+     * Reads the listing of the directory. With <code>remote.listing=auto</code> a plain text or JSON listing is
+     * requested and parsed, if the repo offers one, otherwise the HTML index page.
+     */
+    void fetch(Upstream upstream, Properties properties) throws IOException {
+        Map<String, String> headers = properties.remoteListing.equals("auto")
+                ? Collections.singletonMap("Accept", "application/json, text/plain;q=0.9, text/html;q=0.8")
+                : Collections.emptyMap();
+        final String page;
+        final String contentType;
+        try (Upstream.Reply reply = upstream.get(repo + path, headers);
+             Reader reader = new InputStreamReader(reply.body(), StandardCharsets.UTF_8)) {
+            contentType = String.valueOf(reply.header("Content-Type"));
+            StringBuilder content = new StringBuilder();
+            char[] buf = new char[8192];
+            for (int length; (length = reader.read(buf)) > 0; ) content.append(buf, 0, length);
+            page = content.toString();
         } catch (FileNotFoundException e) {
-            // do nothing
+            return;
+        }
+        Consumer<String> entries = entry -> add(entry, properties.remoteExcludes);
+        if (contentType.startsWith("application/json")) {
+            try {
+                ListingParser.json(page, entries);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid listing " + repo + path, e);
+            }
         }
+        else if (contentType.startsWith("text/plain")) ListingParser.plain(page, entries);
+        else ListingParser.html(page, entries);
     }
 
-    private URL asURL() {
-        try {
-            return new URL(repo + path);
-        } catch (MalformedURLException e) {
-            throw new AssertionError(e);
+    private void add(String entry, Excludes excludes) {
+        if (entry.endsWith("/")) return;
+        switch (excludes.match(entry)) {
+            case EXTENSION:
+                excludedByExtension.add(entry);
+                break;
+            case CLASSIFIER:
+                excludedByClassifier.add(entry);
+                break;
+            default:
+                files.add(entry);
         }
     }
 
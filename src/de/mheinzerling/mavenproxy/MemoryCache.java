@@ -0,0 +1,132 @@
+package de.mheinzerling.mavenproxy;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps small, frequently requested responses (poms, module files, checksums) in memory, so they are served without
+ * touching the file system. Entries hold the prepared response head and the body, optionally in direct buffers
+ * outside the heap.
+ * <p>
+ * Eviction follows a segmented LRU within <code>proxy.memory.size</code> bytes: new entries start in the probation
+ * segment and move to the protected segment (80% of the budget) on their second hit. Entries pushed out of the
+ * protected segment get another chance in probation; the least recently used probation entry is evicted. A single
+ * scan over many files therefore doesn't flush the popular ones.
+ */
+final class MemoryCache {
+    static final class Entry {
+        /** without connection header, only used to derive the head for connections deviating from the default */
+        final Response response;
+        final String head;
+        final byte[] headBytes;
+        final ByteBuffer body;
+
+        private Entry(Response response, ByteBuffer body) {
+            this.response = response;
+            this.head = response.toString();
+            this.headBytes = response.getBytes();
+            this.body = body;
+        }
+
+        int weight() {
+            return headBytes.length + body.capacity();
+        }
+    }
+
+    private final long maxSize;
+    private final long maxProtected;
+    private final int maxEntry;
+    private final boolean offHeap;
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationSize;
+    private long protectedSize;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    MemoryCache(Properties properties) {
+        this.maxSize = properties.proxyMemorySize;
+        this.maxProtected = maxSize * 4 / 5;
+        this.maxEntry = properties.proxyMemoryEntry;
+        this.offHeap = properties.proxyMemoryOffHeap;
+    }
+
+    /**
+     * @return whether a body of this size is kept at all
+     */
+    boolean accepts(long size) {
+        return size <= maxEntry && size < maxSize;
+    }
+
+    synchronized Entry get(String uri) {
+        Entry entry = protectedSegment.get(uri);
+        if (entry == null) {
+            entry = probation.remove(uri);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            probationSize -= entry.weight();
+            protectedSegment.put(uri, entry);
+            protectedSize += entry.weight();
+            shrink();
+        }
+        hits.incrementAndGet();
+        return entry;
+    }
+
+    synchronized boolean contains(String uri) {
+        return protectedSegment.containsKey(uri) || probation.containsKey(uri);
+    }
+
+    synchronized void put(String uri, Response response, byte[] body) {
+        if (!accepts(body.length) || contains(uri)) return;
+        ByteBuffer buffer;
+        if (offHeap) {
+            buffer = ByteBuffer.allocateDirect(body.length);
+            buffer.put(body).flip();
+        } else {
+            buffer = ByteBuffer.wrap(body);
+        }
+        Entry entry = new Entry(response, buffer);
+        probation.put(uri, entry);
+        probationSize += entry.weight();
+        shrink();
+    }
+
+    private void shrink() {
+        Iterator<Map.Entry<String, Entry>> demote = protectedSegment.entrySet().iterator();
+        while (protectedSize > maxProtected && demote.hasNext()) {
+            Map.Entry<String, Entry> eldest = demote.next();
+            demote.remove();
+            protectedSize -= eldest.getValue().weight();
+            probation.put(eldest.getKey(), eldest.getValue());
+            probationSize += eldest.getValue().weight();
+        }
+        Iterator<Entry> evict = probation.values().iterator();
+        while (probationSize + protectedSize > maxSize && evict.hasNext()) {
+            probationSize -= evict.next().weight();
+            evict.remove();
+        }
+    }
+
+    synchronized void clear() {
+        probation.clear();
+        protectedSegment.clear();
+        probationSize = 0;
+        protectedSize = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MemoryCache{" +
+                "entries=" + (probation.size() + protectedSegment.size()) +
+                ", size=" + (probationSize + protectedSize) +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                '}';
+    }
+}
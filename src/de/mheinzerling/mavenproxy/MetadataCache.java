@@ -0,0 +1,129 @@
+package de.mheinzerling.mavenproxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps <code>maven-metadata.xml</code> files for <code>proxy.metadata.ttl</code> seconds. An expired file is still
+ * served, while it is revalidated in the background with <code>If-None-Match</code>/<code>If-Modified-Since</code>
+ * against the repo it came from. The modification time of the cached file is the time of the last validation.
+ */
+final class MetadataCache {
+    private final Properties properties;
+    private final Scheduler scheduler;
+    private final Upstream upstream;
+    private final Probe probe;
+    private final Path root;
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+
+    MetadataCache(Properties properties, Scheduler scheduler, Upstream upstream, Probe probe) {
+        this.properties = properties;
+        this.scheduler = scheduler;
+        this.upstream = upstream;
+        this.probe = probe;
+        this.root = properties.proxyState.resolve("metadata");
+    }
+
+    boolean contains(String file) {
+        return Files.exists(path(file));
+    }
+
+    /**
+     * @return the cached file, fetched from the first repo that has it, if it isn't cached yet; null if every repo
+     * answered 404 or 410, any other failure is thrown
+     */
+    byte[] get(String file) throws IOException {
+        Path cached = path(file);
+        if (Files.exists(cached)) {
+            byte[] content = Files.readAllBytes(cached);
+            if (!properties.proxyOffline && expired(cached)) revalidate(file);
+            return content;
+        }
+        if (properties.proxyOffline) return null;
+        Map.Entry<String, Utils.Remote> found = probe.first(file, repo -> {
+            Utils.Remote remote = Utils.loadIfModified(upstream, repo + file, null, null);
+            return remote.content == null ? null : new AbstractMap.SimpleImmutableEntry<>(repo, remote);
+        });
+        if (found == null) return null;
+        store(file, found.getKey(), found.getValue());
+        return found.getValue().content;
+    }
+
+    private boolean expired(Path cached) throws IOException {
+        return System.currentTimeMillis() - Files.getLastModifiedTime(cached).toMillis() > properties.proxyMetadataTtl * 1000L;
+    }
+
+    private void revalidate(String file) throws IOException {
+        if (!revalidating.add(file)) return;
+        java.util.Properties validators = new java.util.Properties();
+        try (InputStream in = Files.newInputStream(validators(file))) {
+            validators.load(in);
+        } catch (IOException e) {
+            revalidating.remove(file);
+            throw e;
+        }
+        String repo = validators.getProperty("repo");
+        scheduler.submit(repo, Scheduler.Priority.FILL, () -> {
+            try {
+                Utils.Remote remote = Utils.loadIfModified(upstream, repo + file, validators.getProperty("etag"), validators.getProperty("last-modified"));
+                if (remote.content != null) store(file, repo, remote);
+                else if (remote.notModified()) Files.setLastModifiedTime(path(file), FileTime.fromMillis(System.currentTimeMillis()));
+                //otherwise keep serving the stale file
+            } catch (IOException e) {
+                System.out.println("Revalidation of " + file + " failed: " + e);
+            } finally {
+                revalidating.remove(file);
+            }
+            return null;
+        });
+    }
+
+    private void store(String file, String repo, Utils.Remote remote) throws IOException {
+        Path cached = path(file);
+        Files.createDirectories(cached.getParent());
+        java.util.Properties validators = new java.util.Properties();
+        validators.setProperty("repo", repo);
+        if (remote.etag != null) validators.setProperty("etag", remote.etag);
+        if (remote.lastModified != null) validators.setProperty("last-modified", remote.lastModified);
+        Utils.writeAtomically(cached, remote.content); //first, the validators must not announce content, that isn't there
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        validators.store(out, null);
+        Utils.writeAtomically(validators(file), out.toByteArray());
+        if (!properties.proxyGzip) return;
+        byte[] compressed = Gzip.compress(remote.content);
+        if (compressed != null) Utils.writeAtomically(gzipped(cached), compressed);
+        else Files.deleteIfExists(gzipped(cached));
+    }
+
+    /**
+     * @return the compressed variant of the cached file, built whenever it is stored; null, if there is none
+     */
+    byte[] gzipped(String file) throws IOException {
+        try {
+            return Files.readAllBytes(gzipped(path(file)));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static Path gzipped(Path cached) {
+        return cached.resolveSibling(cached.getFileName() + ".gz");
+    }
+
+    private Path path(String file) {
+        return root.resolve(file.substring(1));
+    }
+
+    private Path validators(String file) {
+        return root.resolve(file.substring(1) + ".properties");
+    }
+}
@@ -0,0 +1,81 @@
+package de.mheinzerling.mavenproxy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers files and directories, that no remote repo has, for <code>proxy.negative.ttl</code> seconds. In offline
+ * mode the entries never expire. The entries are appended to <code>.proxy/negative.log</code>, which is compacted
+ * on startup.
+ */
+final class NegativeCache {
+    private final Properties properties;
+    private final Path log;
+    private final Map<String, Long> misses = new ConcurrentHashMap<>();
+
+    NegativeCache(Properties properties) {
+        this.properties = properties;
+        this.log = properties.proxyState.resolve("negative.log");
+        try {
+            load();
+        } catch (IOException e) {
+            System.out.println("Ignoring negative cache: " + e);
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(log)) return;
+        try (BufferedReader reader = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                int space = line.indexOf(' ');
+                if (space > 0) misses.put(line.substring(space + 1), Long.parseLong(line.substring(0, space)));
+            }
+        }
+        long now = System.currentTimeMillis();
+        if (!properties.proxyOffline) misses.values().removeIf(time -> expired(time, now));
+        StringBuilder compacted = new StringBuilder();
+        misses.forEach((path, time) -> compacted.append(time).append(' ').append(path).append('\n'));
+        Utils.writeAtomically(log, compacted.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param path directory (ending with a slash) or file
+     */
+    boolean contains(String path) {
+        Long time = misses.get(path);
+        if (time == null) return false;
+        if (properties.proxyOffline || !expired(time, System.currentTimeMillis())) return true;
+        misses.remove(path, time);
+        return false;
+    }
+
+    private boolean expired(long time, long now) {
+        return now - time > properties.proxyNegativeTtl * 1000L;
+    }
+
+    void add(String path) {
+        long now = System.currentTimeMillis();
+        misses.put(path, now);
+        synchronized (this) {
+            try {
+                Files.createDirectories(log.getParent());
+                try (Writer writer = Files.newBufferedWriter(log, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    writer.write(now + " " + path + "\n");
+                }
+            } catch (IOException e) {
+                System.out.println("Can't persist negative cache: " + e);
+            }
+        }
+    }
+
+    void clear() {
+        misses.clear();
+    }
+}
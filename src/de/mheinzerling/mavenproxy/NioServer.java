@@ -0,0 +1,232 @@
+package de.mheinzerling.mavenproxy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Selector based front end. A single thread accepts connections and reads the request heads without blocking,
+ * so idle or slow clients don't hold a thread. Complete requests are handed to one of two workers: cache hits
+ * run on a fixed pool of <code>proxy.threads</code>, misses that have to go upstream on an unbounded pool.
+ * A slow upstream download therefore never delays a hit.
+ * <p>
+ * Persistent connections return to the selector after each response; pipelined requests, that are already
+ * buffered, are dispatched right away.
+ */
+final class NioServer {
+    private static final long SWEEP_INTERVAL = 1000;
+
+    private final Properties properties;
+    private final Proxy proxy;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService hits;
+    private final ExecutorService misses;
+    private final Queue<Connection> idle = new ConcurrentLinkedQueue<>();
+
+    NioServer(Properties properties, Proxy proxy) throws IOException {
+        this.properties = properties;
+        this.proxy = proxy;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(properties.proxyPort));
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.hits = Executors.newFixedThreadPool(properties.proxyThreads);
+        this.misses = Executors.newCachedThreadPool();
+    }
+
+    void run() throws IOException {
+        final List<Connection> complete = new ArrayList<>();
+        long lastSweep = System.currentTimeMillis();
+        while (serverChannel.isOpen()) {
+            selector.select(SWEEP_INTERVAL);
+            for (Connection connection; (connection = idle.poll()) != null; ) {
+                register(connection);
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) continue;
+                if (key.isAcceptable()) accept();
+                else if (key.isReadable()) read(key, complete);
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastSweep >= SWEEP_INTERVAL) {
+                sweep(now);
+                lastSweep = now;
+            }
+            if (complete.isEmpty()) continue;
+            selector.selectNow(); //deregister the cancelled keys, before switching to blocking mode
+            for (Connection connection : complete) {
+                dispatch(connection);
+            }
+            complete.clear();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        register(new Connection(channel));
+    }
+
+    private void register(Connection connection) {
+        try {
+            connection.lastActive = System.currentTimeMillis();
+            connection.channel.register(selector, SelectionKey.OP_READ, connection);
+        } catch (IOException e) {
+            connection.close();
+        }
+    }
+
+    private void read(SelectionKey key, List<Connection> complete) {
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (connection.channel.read(connection.in) < 0) {
+                connection.close();
+                return;
+            }
+            connection.lastActive = System.currentTimeMillis();
+            if (connection.hasRequest()) {
+                key.cancel();
+                complete.add(connection);
+            } else if (!connection.in.hasRemaining()) {
+                connection.close(); //header too large
+            }
+        } catch (IOException e) {
+            connection.close();
+        }
+    }
+
+    private void sweep(long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (!(key.attachment() instanceof Connection)) continue;
+            Connection connection = (Connection) key.attachment();
+            if (now - connection.lastActive > properties.proxyKeepAliveTimeout) connection.close();
+        }
+    }
+
+    private void dispatch(Connection connection) {
+        try {
+            connection.channel.configureBlocking(true);
+        } catch (IOException e) {
+            connection.close();
+            return;
+        }
+        final Request request = connection.nextRequest();
+        final boolean keepAlive = request.keepAlive() && ++connection.requests < properties.proxyKeepAliveRequests;
+        executor(request).submit(() -> {
+            try {
+                Proxy.Result result = proxy.handle(request, keepAlive, connection.out);
+                connection.out.flush();
+                if (!result.fromCache) {
+                    System.out.println(request + " -> " + result.getSimpleResponseString());
+                }
+            } catch (IOException | RuntimeException | AssertionError e) {
+                e.printStackTrace();
+                connection.close();
+                return;
+            }
+            if (!keepAlive) connection.close();
+            else if (connection.hasRequest()) dispatch(connection); //pipelined
+            else release(connection);
+        });
+    }
+
+    private void release(Connection connection) {
+        try {
+            connection.channel.configureBlocking(false);
+        } catch (IOException e) {
+            connection.close();
+            return;
+        }
+        idle.add(connection);
+        selector.wakeup();
+    }
+
+    private ExecutorService executor(Request request) {
+        try {
+            return proxy.isCached(request) ? hits : misses;
+        } catch (IOException | RuntimeException e) {
+            return misses;
+        }
+    }
+
+    void close() {
+        hits.shutdown();
+        misses.shutdown();
+        try {
+            serverChannel.close();
+            selector.wakeup();
+        } catch (IOException e) {
+            //ignore
+        }
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(Request.MAX_HEAD);
+        final OutputStream out;
+        int requests;
+        volatile long lastActive;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.out = new ChannelOutputStream(channel);
+        }
+
+        boolean hasRequest() {
+            return headEnd() >= 0;
+        }
+
+        /**
+         * Removes the next complete request head from the buffer, keeping the bytes of pipelined requests.
+         */
+        Request nextRequest() {
+            int end = headEnd();
+            String head = new String(in.array(), 0, end, StandardCharsets.ISO_8859_1);
+            in.flip();
+            in.position(end);
+            in.compact();
+            return Request.parse(head.trim());
+        }
+
+        /**
+         * @return the position after the empty line, that terminates the first head in the buffer; otherwise -1
+         */
+        private int headEnd() {
+            byte[] data = in.array();
+            int end = in.position();
+            for (int i = 0; i < end; i++) {
+                if (data[i] != '\n') continue;
+                if (i + 1 < end && data[i + 1] == '\n') return i + 2;
+                if (i + 2 < end && data[i + 1] == '\r' && data[i + 2] == '\n') return i + 3;
+            }
+            return -1;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+}
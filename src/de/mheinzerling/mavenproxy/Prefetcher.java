@@ -0,0 +1,252 @@
+package de.mheinzerling.mavenproxy;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads the dependencies of newly cached poms and Gradle <code>.module</code> files in the background
+ * (<code>proxy.prefetch=true</code>), so a build finds them in the cache, instead of resolving them one miss after
+ * another. Parents, BOM imports and compile/runtime dependencies are followed up to <code>proxy.prefetch.depth</code>
+ * levels below a requested file; at most <code>proxy.prefetch.threads</code> directories are prefetched at once and
+ * further directories are dropped, if too many are waiting.
+ */
+final class Prefetcher {
+    private static final int MAX_WAITING = 1000;
+    private static final Pattern PROPERTY = Pattern.compile("\\$\\{([^}]+)}");
+
+    private final Path root;
+    private final int maxDepth;
+    private final Consumer<String> load;
+    private final Function<Path, Path> content;
+    private final ExecutorService executor;
+    /** depth of the directories, that are prefetched or were prefetched recently; the least recently used are evicted */
+    private final Map<String, Integer> depths = Collections.synchronizedMap(new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > 10 * MAX_WAITING;
+        }
+    });
+
+    /**
+     * @param load    loads a directory like <code>/org/example/demo/1.0/</code>, if it isn't cached yet
+     * @param content resolves the file, that holds the content of a cached file
+     */
+    Prefetcher(Properties properties, Consumer<String> load, Function<Path, Path> content) {
+        this.root = properties.proxyLocation;
+        this.maxDepth = properties.proxyPrefetchDepth;
+        this.load = load;
+        this.content = content;
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(properties.proxyPrefetchThreads, properties.proxyPrefetchThreads,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(MAX_WAITING), r -> {
+            Thread thread = new Thread(r, "prefetch-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, (r, executor) -> {
+            if (r instanceof Load) depths.remove(((Load) r).dir, ((Load) r).depth); //dropped, may be queued again
+        });
+    }
+
+    /**
+     * Called for every file, that was added to the cache.
+     */
+    void stored(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(".pom") && !name.endsWith(".module")) return;
+        String dir = dir(file.getParent());
+        if (dir == null) return;
+        int depth = depths.getOrDefault(dir, 0);
+        if (depth >= maxDepth) return;
+        executor.execute(() -> {
+            try {
+                for (String dependency : name.endsWith(".pom") ? pom(content.apply(file)) : module(content.apply(file))) {
+                    queue(dependency, depth + 1);
+                }
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Can't prefetch dependencies of " + file + ": " + e);
+            }
+        });
+    }
+
+    private void queue(String dir, int depth) {
+        if (depths.putIfAbsent(dir, depth) != null) return;
+        executor.execute(new Load(dir, depth));
+    }
+
+    private String dir(Path directory) {
+        if (!directory.startsWith(root)) return null;
+        StringBuilder dir = new StringBuilder("/");
+        for (Path segment : root.relativize(directory)) dir.append(segment).append('/');
+        return dir.toString();
+    }
+
+    void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Prefetch of a directory; if it is dropped, the directory is no longer marked as prefetched.
+     */
+    private final class Load implements Runnable {
+        private final String dir;
+        private final int depth;
+
+        Load(String dir, int depth) {
+            this.dir = dir;
+            this.depth = depth;
+        }
+
+        @Override
+        public void run() {
+            try {
+                load.accept(dir);
+            } catch (RuntimeException e) {
+                System.out.println("Prefetch of " + dir + " failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * @return the directories of the parent, the imported BOMs and the compile/runtime dependencies
+     */
+    static Set<String> pom(Path pom) throws IOException {
+        Element project = Utils.parseXml(pom).getDocumentElement();
+        Map<String, String> properties = new HashMap<>();
+        Element parent = child(project, "parent");
+        for (Element property : children(child(project, "properties"))) {
+            properties.put(property.getTagName(), property.getTextContent().trim());
+        }
+        String groupId = text(project, "groupId", text(parent, "groupId", null));
+        String version = text(project, "version", text(parent, "version", null));
+        properties.put("project.groupId", groupId);
+        properties.put("pom.groupId", groupId);
+        properties.put("groupId", groupId);
+        properties.put("project.version", version);
+        properties.put("pom.version", version);
+        properties.put("version", version);
+        properties.put("project.parent.version", text(parent, "version", null));
+
+        Set<String> dirs = new LinkedHashSet<>();
+        if (parent != null) add(dirs, properties, text(parent, "groupId", null), text(parent, "artifactId", null), text(parent, "version", null));
+
+        Map<String, String> managed = new HashMap<>();
+        for (Element dependency : children(child(child(project, "dependencyManagement"), "dependencies"))) {
+            String g = resolve(text(dependency, "groupId", null), properties);
+            String a = resolve(text(dependency, "artifactId", null), properties);
+            String v = text(dependency, "version", null);
+            if ("import".equals(text(dependency, "scope", null))) add(dirs, properties, g, a, v);
+            else managed.put(g + ":" + a, v);
+        }
+        for (Element dependency : children(child(project, "dependencies"))) {
+            String scope = text(dependency, "scope", "compile");
+            if (scope.equals("test") || scope.equals("provided") || scope.equals("system")) continue;
+            if ("true".equals(text(dependency, "optional", null))) continue;
+            String g = resolve(text(dependency, "groupId", null), properties);
+            String a = resolve(text(dependency, "artifactId", null), properties);
+            add(dirs, properties, g, a, text(dependency, "version", managed.get(g + ":" + a)));
+        }
+        return dirs;
+    }
+
+    /**
+     * @return the directories of the dependencies and the redirected variants of the Gradle module metadata
+     */
+    static Set<String> module(Path module) throws IOException {
+        Object json = Json.parse(new String(Files.readAllBytes(module), StandardCharsets.UTF_8));
+        Set<String> dirs = new LinkedHashSet<>();
+        for (Object variant : list(map(json).get("variants"))) {
+            Map<?, ?> availableAt = map(map(variant).get("available-at"));
+            add(dirs, Collections.emptyMap(), string(availableAt.get("group")), string(availableAt.get("module")), string(availableAt.get("version")));
+            for (Object dependency : list(map(variant).get("dependencies"))) {
+                Map<?, ?> version = map(map(dependency).get("version"));
+                String v = string(version.get("strictly"));
+                if (v == null) v = string(version.get("requires"));
+                if (v == null) v = string(version.get("prefer"));
+                add(dirs, Collections.emptyMap(), string(map(dependency).get("group")), string(map(dependency).get("module")), v);
+            }
+        }
+        return dirs;
+    }
+
+    private static void add(Set<String> dirs, Map<String, String> properties, String groupId, String artifactId, String version) {
+        String g = resolve(groupId, properties);
+        String a = resolve(artifactId, properties);
+        String v = resolve(version, properties);
+        if (g == null || a == null || v == null) return;
+        if (v.isEmpty() || v.startsWith("latest.") || v.matches(".*[\\[\\](),+].*")) return; //ranges and dynamic versions
+        dirs.add(Maven.directory(g, a, v));
+    }
+
+    /**
+     * @return the value with all properties replaced; null, if a property is unknown
+     */
+    private static String resolve(String value, Map<String, String> properties) {
+        for (int i = 0; value != null && value.contains("${") && i < 10; i++) {
+            Matcher matcher = PROPERTY.matcher(value);
+            StringBuffer resolved = new StringBuffer();
+            while (matcher.find()) {
+                String property = properties.get(matcher.group(1));
+                if (property == null) return null;
+                matcher.appendReplacement(resolved, Matcher.quoteReplacement(property));
+            }
+            matcher.appendTail(resolved);
+            value = resolved.toString();
+        }
+        return value == null || value.contains("${") ? null : value;
+    }
+
+    private static Element child(Element parent, String name) {
+        for (Element child : children(parent)) {
+            if (child.getTagName().equals(name)) return child;
+        }
+        return null;
+    }
+
+    private static List<Element> children(Element parent) {
+        if (parent == null) return Collections.emptyList();
+        List<Element> children = new ArrayList<>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element) children.add((Element) node);
+        }
+        return children;
+    }
+
+    private static String text(Element parent, String name, String def) {
+        Element child = parent == null ? null : child(parent, name);
+        return child == null ? def : child.getTextContent().trim();
+    }
+
+    private static Map<?, ?> map(Object value) {
+        return value instanceof Map ? (Map<?, ?>) value : Collections.emptyMap();
+    }
+
+    private static List<?> list(Object value) {
+        return value instanceof List ? (List<?>) value : Collections.emptyList();
+    }
+
+    private static String string(Object value) {
+        return value instanceof String ? (String) value : null;
+    }
+}
@@ -0,0 +1,152 @@
+package de.mheinzerling.mavenproxy;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asks the remote repos for a file, until one has it. The answer of the first repo in the configured order wins, even
+ * if a later repo answered faster. <code>remote.probe</code> selects the strategy:
+ * <ul>
+ * <li><code>sequential</code> asks the next repo only after the previous one missed</li>
+ * <li><code>parallel</code> asks all repos at once</li>
+ * <li><code>hedged</code> asks the next repo, if the previous one missed, but at the latest <code>remote.probe.hedge</code>
+ * ms after the previous one was due, counted from the start of the probe</li>
+ * </ul>
+ * Pending requests are cancelled as soon as the answer is known. Cancelling only skips requests, that are still
+ * queued; a request, that was already sent, runs to its end and its answer is discarded. A failing repo counts as a
+ * miss, unless no repo has the file; then the first failure is thrown, so it isn't mistaken for a missing file.
+ * <p>
+ * The order of the repos is adapted by the {@link Affinity} of the path.
+ */
+final class Probe {
+    interface Attempt<T> {
+        /**
+         * @return null, if the repo doesn't have the file
+         */
+        T ask(String repo) throws IOException;
+    }
+
+    private final Scheduler scheduler;
+    private final Affinity affinity;
+    private final boolean concurrent;
+    private final long hedge;
+
+    Probe(Properties properties, Scheduler scheduler, Affinity affinity) {
+        this.scheduler = scheduler;
+        this.affinity = affinity;
+        switch (properties.remoteProbe) {
+            case "sequential":
+                this.concurrent = false;
+                this.hedge = 0;
+                break;
+            case "parallel":
+                this.concurrent = true;
+                this.hedge = 0;
+                break;
+            case "hedged":
+                this.concurrent = true;
+                this.hedge = properties.remoteProbeHedge;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown remote.probe: " + properties.remoteProbe);
+        }
+    }
+
+    /**
+     * @param path directory or file to ask for
+     * @return the answer of the first repo in order, that has the file; null, if none has it
+     */
+    <T> T first(String path, Attempt<T> attempt) throws IOException {
+        final List<String> repos = affinity.order(path);
+        final Attempt<T> measured = repo -> {
+            long start = System.currentTimeMillis();
+            boolean failed = true;
+            try {
+                T result = attempt.ask(repo);
+                failed = false;
+                return result;
+            } finally {
+                affinity.answered(repo, System.currentTimeMillis() - start, failed);
+            }
+        };
+        final Map.Entry<String, T> found = concurrent && repos.size() > 1 ? concurrent(repos, measured) : sequential(repos, measured);
+        if (found == null) return null;
+        affinity.served(path, found.getKey());
+        return found.getValue();
+    }
+
+    private <T> Map.Entry<String, T> concurrent(List<String> repos, Attempt<T> attempt) throws IOException {
+        final List<CompletableFuture<T>> futures = new ArrayList<>();
+        final BlockingQueue<Integer> answered = new LinkedBlockingQueue<>();
+        final long started = System.nanoTime();
+        IOException failure = null;
+        try {
+            if (hedge == 0) {
+                for (String repo : repos) start(repo, attempt, futures, answered);
+            }
+            for (int next = 0; next < repos.size(); ) {
+                if (next >= futures.size()) {
+                    start(repos.get(next), attempt, futures, answered);
+                    continue;
+                }
+                CompletableFuture<T> future = futures.get(next);
+                if (future.isDone()) {
+                    try {
+                        T result = Proxy.await(future);
+                        if (result != null) return new AbstractMap.SimpleImmutableEntry<>(repos.get(next), result);
+                    } catch (IOException e) {
+                        if (failure == null) failure = e;
+                    }
+                    next++;
+                    continue;
+                }
+                if (hedge > 0 && futures.size() < repos.size()) {
+                    long due = started + TimeUnit.MILLISECONDS.toNanos(hedge * futures.size()) - System.nanoTime(); //unaffected by misses
+                    if (due <= 0 || answered.poll(due, TimeUnit.NANOSECONDS) == null) { //too slow, ask the next repo as well
+                        start(repos.get(futures.size()), attempt, futures, answered);
+                    }
+                } else {
+                    answered.take();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            for (CompletableFuture<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+        if (failure != null) throw failure;
+        return null;
+    }
+
+    private <T> void start(String repo, Attempt<T> attempt, List<CompletableFuture<T>> futures, BlockingQueue<Integer> answered) {
+        final int index = futures.size();
+        CompletableFuture<T> future = scheduler.submit(repo, Scheduler.Priority.REQUESTED, () -> attempt.ask(repo));
+        future.whenComplete((result, e) -> answered.add(index));
+        futures.add(future);
+    }
+
+    private static <T> Map.Entry<String, T> sequential(List<String> repos, Attempt<T> attempt) throws IOException {
+        IOException failure = null;
+        for (String repo : repos) {
+            try {
+                T result = attempt.ask(repo);
+                if (result != null) return new AbstractMap.SimpleImmutableEntry<>(repo, result);
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+        return null;
+    }
+}
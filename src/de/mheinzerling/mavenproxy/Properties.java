@@ -12,23 +12,84 @@ import java.util.Map;
 public class Properties {
     final int proxyThreads;
     final Path proxyLocation;
+    final Path proxyState;
     final int proxyPort;
     final boolean proxyOffline;
+    final String proxyServer;
+    final int proxyKeepAliveTimeout;
+    final int proxyKeepAliveRequests;
+    final boolean proxyStream;
+    final int proxyMetadataTtl;
+    final int proxyNegativeTtl;
+    final long proxyMemorySize;
+    final int proxyMemoryEntry;
+    final boolean proxyMemoryOffHeap;
+    final boolean proxyIndexSnapshot;
+    final String proxyFill;
+    final boolean proxyPrefetch;
+    final int proxyPrefetchDepth;
+    final int proxyPrefetchThreads;
+    final Path proxyShared;
+    final String proxyStore;
+    final boolean proxyGzip;
     final List<String> remoteRepos;
     final List<String> remoteExcludeExtensions;
     final List<String> remoteExcludeClassifiers;
+    final Excludes remoteExcludes;
+    final String remoteListing;
     final int remoteThreads;
+    final int remoteThreadsRepo;
+    final int remoteConnections;
+    final int remoteTimeoutConnect;
+    final int remoteTimeoutRead;
+    final int remoteRetries;
+    final int remoteRetryBackoff;
+    final String remoteProbe;
+    final int remoteProbeHedge;
+    final boolean remoteAffinity;
+    final int remoteSlow;
 
     private Properties(java.util.Properties props) {
         proxyThreads = integer(props, "proxy.threads", 8);
         proxyLocation = path(props, "proxy.location", ".cache");
+        proxyState = proxyLocation.resolve(".proxy");
         proxyPort = integer(props, "proxy.port", 3000);
         proxyOffline = bool(props, "proxy.offline", false);
+        proxyServer = string(props, "proxy.server", "nio");
+        proxyKeepAliveTimeout = integer(props, "proxy.keepalive.timeout", 15000);
+        proxyKeepAliveRequests = integer(props, "proxy.keepalive.requests", 1000);
+        proxyStream = bool(props, "proxy.stream", false);
+        proxyMetadataTtl = integer(props, "proxy.metadata.ttl", 600);
+        proxyNegativeTtl = integer(props, "proxy.negative.ttl", 3600);
+        proxyMemorySize = integer(props, "proxy.memory.size", 32 * 1024 * 1024);
+        proxyMemoryEntry = integer(props, "proxy.memory.entry", 64 * 1024);
+        proxyMemoryOffHeap = bool(props, "proxy.memory.offheap", false);
+        proxyIndexSnapshot = bool(props, "proxy.index.snapshot", false);
+        proxyFill = string(props, "proxy.fill", "eager");
+        proxyPrefetch = bool(props, "proxy.prefetch", false);
+        proxyPrefetchDepth = integer(props, "proxy.prefetch.depth", 3);
+        proxyPrefetchThreads = integer(props, "proxy.prefetch.threads", 2);
+        String shared = string(props, "proxy.shared", "");
+        proxyShared = shared.isEmpty() ? null : home(shared);
+        proxyStore = string(props, "proxy.store", "mirror");
+        proxyGzip = bool(props, "proxy.gzip", true);
 
         remoteRepos = list(props, "remote.repos", Maven.REPO1, Maven.APACHE, Maven.GRADLE_PLUGINS);
         remoteExcludeExtensions = list(props, "remote.exclude.extensions", ".asc", ".sha1", ".sha512", ".sha256", ".md5", "-release.zip", "-site.xml");
         remoteExcludeClassifiers = list(props, "remote.exclude.classifiers", "-javadoc.", "-tests.", "-tests.", "-test-sources.", "-groovydoc.");
+        remoteExcludes = new Excludes(remoteExcludeExtensions, remoteExcludeClassifiers);
+        remoteListing = string(props, "remote.listing", "html");
         remoteThreads = integer(props, "remote.threads", 8);
+        remoteThreadsRepo = integer(props, "remote.threads.repo", 4);
+        remoteConnections = integer(props, "remote.connections", remoteThreadsRepo);
+        remoteTimeoutConnect = integer(props, "remote.timeout.connect", 10000);
+        remoteTimeoutRead = integer(props, "remote.timeout.read", 30000);
+        remoteRetries = integer(props, "remote.retries", 2);
+        remoteRetryBackoff = integer(props, "remote.retry.backoff", 500);
+        remoteProbe = string(props, "remote.probe", "sequential");
+        remoteProbeHedge = integer(props, "remote.probe.hedge", 250);
+        remoteAffinity = bool(props, "remote.affinity", true);
+        remoteSlow = integer(props, "remote.slow", 2000);
     }
 
     public Properties() {
@@ -81,6 +142,13 @@ public class Properties {
         return result;
     }
 
+    @SuppressWarnings("SameParameterValue")
+    private String string(java.util.Properties props, String key, String def) {
+        String result = props.getProperty(key, def);
+        System.out.println("  " + key + "=" + result);
+        return result;
+    }
+
     @SuppressWarnings("SameParameterValue")
     private Path path(java.util.Properties props, String key, String def) {
         String value = props.getProperty(key);
@@ -89,6 +157,14 @@ public class Properties {
         return result;
     }
 
+    /**
+     * @return the absolute path with a leading <code>~</code> replaced by the user home
+     */
+    private static Path home(String path) {
+        if (path.startsWith("~")) return Paths.get(System.getProperty("user.home") + path.substring(1)).toAbsolutePath();
+        return Paths.get(path).toAbsolutePath();
+    }
+
     private List<String> list(java.util.Properties props, String key, String... defs) {
         String value = props.getProperty(key);
         List<String> result = Arrays.asList(value == null ? defs : value.split(","));
@@ -1,15 +1,28 @@
 package de.mheinzerling.mavenproxy;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.util.stream.Stream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static de.mheinzerling.mavenproxy.Utils.transferTo;
 
@@ -17,14 +30,66 @@ public final class Proxy {
 
     private final Properties properties;
     private final Maven maven;
+    private final NegativeCache negativeCache;
+    private final MemoryCache memoryCache;
+    private final CacheIndex index;
+    private final ConcurrentMap<String, CompletableFuture<Map<String, CompletableFuture<Void>>>> fills = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Boolean>> fetches = new ConcurrentHashMap<>();
+    private final boolean lazy;
+    private final Prefetcher prefetcher;
 
     Proxy(Properties properties) {
+        this(properties, new UrlConnectionUpstream(properties));
+    }
+
+    Proxy(Properties properties, Upstream upstream) {
         this.properties = properties;
-        this.maven = new Maven(properties);
+        switch (properties.proxyFill) {
+            case "eager":
+                this.lazy = false;
+                break;
+            case "lazy":
+                this.lazy = true;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown proxy.fill: " + properties.proxyFill);
+        }
+        this.index = new CacheIndex(properties.proxyLocation, properties.proxyState.resolve("index"));
+        try {
+            index.load(properties.proxyIndexSnapshot);
+        } catch (IOException e) {
+            System.out.println("Ignoring index snapshot: " + e);
+        }
+        this.maven = new Maven(properties, index, upstream);
+        this.prefetcher = properties.proxyPrefetch ? new Prefetcher(properties, this::prefetch, maven::content) : null;
+        if (prefetcher != null) maven.onStored(prefetcher::stored);
+        this.negativeCache = new NegativeCache(properties);
+        this.memoryCache = new MemoryCache(properties);
     }
 
     public void clear() throws IOException {
         Utils.deleteDirectory(properties.proxyLocation);
+        negativeCache.clear();
+        memoryCache.clear();
+        maven.clear();
+        index.clear();
+    }
+
+    /**
+     * Stops the background prefetches and persists state, that is otherwise rebuilt on startup.
+     */
+    void close() {
+        if (prefetcher != null) prefetcher.close();
+        if (!properties.proxyIndexSnapshot) return;
+        try {
+            index.writeSnapshot();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    String statistics() {
+        return memoryCache.toString();
     }
 
     static class Result {
@@ -42,103 +107,435 @@ public final class Proxy {
     }
 
     public Result handle(String requestLine, OutputStream outputStream) throws IOException {
-        final String[] parts = requestLine.split(" ");
-        final String method = parts[0];
+        final Request request = new Request(requestLine);
+        return handle(request, request.keepAlive(), outputStream);
+    }
+
+    Result handle(Request request, boolean keepAlive, OutputStream outputStream) throws IOException {
+        final String requestLine = request.requestLine;
+        final String method = request.method;
         if (method.equals("CONNECT")) throw new RuntimeException("HTTPS not supported");
         final boolean isHead = method.equals("HEAD");
         final boolean isGet = method.equals("GET");
         if (!isHead && !isGet) throw new RuntimeException(method + " not supported");
 
 
-        final String requestUri = parts[1];
+        final String requestUri = request.uri;
+        if (!requestUri.startsWith("/")) {
+            final String responseString = Response.badRequest().connection(request, keepAlive).toString();
+            outputStream.write(responseString.getBytes(StandardCharsets.UTF_8));
+            return new Result(responseString, false);
+        }
         int pos = requestUri.lastIndexOf("/");
         String dir = requestUri.substring(0, pos + 1);
         String file = requestUri.substring(pos + 1);
         Path cacheSubDir = properties.proxyLocation.resolve(dir.substring(1));
 
+        if (!fills.containsKey(dir) && (negativeCache.contains(dir) || negativeCache.contains(requestUri))) {
+            return notFound(request, keepAlive, outputStream, true);
+        }
+
+        final boolean conditional = request.header("if-none-match") != null || request.header("if-modified-since") != null;
+        final String memoryKey = properties.proxyGzip && Gzip.compressible(file) && Gzip.accepted(request) ? requestUri + "#gzip" : requestUri;
+        final MemoryCache.Entry entry = conditional || isGet && request.header("range") != null ? null : memoryCache.get(memoryKey);
+        if (entry != null) {
+            final String responseString;
+            if (Response.announcesConnection(request, keepAlive)) {
+                responseString = entry.response.copy().connection(request, keepAlive).toString();
+                outputStream.write(responseString.getBytes(StandardCharsets.UTF_8));
+            } else {
+                responseString = entry.head;
+                outputStream.write(entry.headBytes);
+            }
+            if (isGet) transferTo(entry.body, outputStream);
+            return new Result(responseString, true);
+        }
+
         if (file.endsWith("maven-metadata.xml")) {
-            if (properties.proxyOffline)
+            if (properties.proxyOffline && !maven.hasMetadata(requestUri))
                 throw new AssertionError("Can't check meta data " + requestLine + " in offline mode");
 
-            if (maven.copy(requestUri, outputStream)) {
+            byte[] content = maven.metadata(requestUri);
+            if (content != null) {
+                final byte[] gzipped = properties.proxyGzip ? maven.gzippedMetadata(requestUri) : null;
+                final boolean gzip = gzipped != null && Gzip.accepted(request);
+                if (gzip) content = gzipped;
+                outputStream.write(Response.ok(content.length).encoding(gzip, gzipped != null).connection(request, keepAlive).getBytes());
+                if (isGet) outputStream.write(content);
                 return new Result("[maven-metadata.xml]", false);
             }
+            negativeCache.add(requestUri); //every repo answered 404, failures are thrown
         }
 
         boolean hit = true;
-        if (missing(cacheSubDir)) {
-            if (properties.proxyOffline)
-                throw new AssertionError("Missed cache for " + requestLine + " in offline mode");
-            MavenListing listing = maven.index(dir);
-            //System.out.println(listing);
-            maven.loadAll(listing, properties.proxyLocation);
-            hit = false;
-        }
-
-        if (file.endsWith(".sha1") || file.endsWith(".sha256") || file.endsWith(".sha512") || file.endsWith(".md5")) {
-            Path data = cacheSubDir.resolve(file.substring(0, file.lastIndexOf(".")));
-            if (Files.exists(data)) {
-
-                String algorithm;
-                int length;
-                if (file.endsWith(".sha1")) {
-                    algorithm = "SHA-1";
-                    length = 40;
-                } else if (file.endsWith(".sha256")) {
-                    algorithm = "SHA-256";
-                    length = 64;
-                } else if (file.endsWith(".sha512")) {
-                    algorithm = "SHA-512";
-                    length = 128;
-                } else /*if (file.endsWith(".md5")) */ {
-                    algorithm = "MD5";
-                    length = 32;
+        if (lazy) {
+            final String dataFile = Checksum.data(file);
+            if (!index.exists(cacheSubDir.resolve(file)) && !index.exists(cacheSubDir.resolve(dataFile))) {
+                if (properties.proxyOffline)
+                    throw new AssertionError("Missed cache for " + requestLine + " in offline mode");
+                StreamThrough tee = isGet && properties.proxyStream && dataFile.equals(file) ? new StreamThrough(request, keepAlive, outputStream) : null;
+                if (!fetch(dir, cacheSubDir, dataFile, tee, Scheduler.Priority.REQUESTED)) {
+                    negativeCache.add(requestUri);
+                    return notFound(request, keepAlive, outputStream, false);
                 }
-                final String responseString = "HTTP/1.1 200 OK\r\n" +
-                        "content-length: " + length + "\r\n\r\n";
-                outputStream.write(responseString.getBytes(StandardCharsets.UTF_8));
-                if (isGet) {
-
-                    outputStream.write(Utils.checksum(data, algorithm).getBytes(StandardCharsets.UTF_8));
+                if (tee != null && tee.responseString != null) {
+                    if (!index.exists(cacheSubDir.resolve(file)) || !tee.complete()) { //failed or hash mismatch, drop the connection
+                        throw new IOException("Stream-through of " + requestUri + " incomplete");
+                    }
+                    return new Result(tee.responseString, false);
                 }
-                return new Result(responseString, hit);
+                hit = false;
             }
-        } else {
-            Path data = cacheSubDir.resolve(file);
-            if (Files.exists(data)) {
-                final String responseString = "HTTP/1.1 200 OK\r\n" +
-                        "content-length: " + Files.size(data) + "\r\n\r\n";
-                outputStream.write(responseString.getBytes(StandardCharsets.UTF_8));
-                if (isGet) {
-                    try (InputStream is = Files.newInputStream(data)) {
-                        transferTo(is, outputStream);
+        } else if (!index.exists(cacheSubDir.resolve(file)) && !index.exists(cacheSubDir.resolve(Checksum.data(file)))) {
+            if (properties.proxyOffline) {
+                if (index.missing(cacheSubDir))
+                    throw new AssertionError("Missed cache for " + requestLine + " in offline mode");
+            } else {
+                StreamThrough tee = isGet && properties.proxyStream && Checksum.of(file) == null ? new StreamThrough(request, keepAlive, outputStream) : null;
+                try {
+                    hit = !fill(dir, cacheSubDir, file, tee, Scheduler.Priority.FILL); //decides, whether the directory is loaded
+                } catch (FileNotFoundException e) {
+                    System.out.println(e.getMessage());
+                    negativeCache.add(dir);
+                    return notFound(request, keepAlive, outputStream, false);
+                }
+                if (tee != null && tee.responseString != null) {
+                    if (!index.exists(cacheSubDir.resolve(file)) || !tee.complete()) { //failed or hash mismatch, drop the connection
+                        throw new IOException("Stream-through of " + requestUri + " incomplete");
                     }
+                    return new Result(tee.responseString, false);
+                }
+                if (retry(cacheSubDir, file)) {
+                    fetch(dir, cacheSubDir, Checksum.data(file), null, Scheduler.Priority.REQUESTED);
+                    hit = false;
                 }
+            }
+        }
+
+        Path data = cacheSubDir.resolve(file);
+        Checksum checksum = Checksum.of(file);
+        if (checksum != null && !index.exists(data)) {
+            Path artifact = checksum.data(data);
+            if (index.exists(artifact)) { //cached before checksums were stored
+                Checksum.store(artifact);
+                index.addArtifact(artifact);
+            }
+        }
+        if (index.exists(data)) {
+            final Path content = maven.content(data);
+            final Path variant = maven.gzipped(data);
+            final boolean gzip = variant != null && request.header("range") == null && Gzip.accepted(request);
+            final Path served = gzip ? variant : content;
+            final long size;
+            final long lastModified;
+            try {
+                size = Files.size(served);
+                lastModified = Files.getLastModifiedTime(content).to(TimeUnit.SECONDS);
+            } catch (NoSuchFileException e) { //deleted behind the proxy's back
+                index.remove(data);
+                return notFound(request, keepAlive, outputStream, hit);
+            }
+            String etag = etag(data);
+            if (gzip && etag != null) etag = etag.substring(0, etag.length() - 1) + "-gzip\""; //differs from the plain file
+            if (notModified(request, etag, lastModified)) {
+                final String responseString = Response.notModified().encoding(false, variant != null).validators(etag, lastModified).connection(request, keepAlive).toString();
+                outputStream.write(responseString.getBytes(StandardCharsets.UTF_8));
+                return new Result(responseString, hit);
+            }
+            final long[] range = isGet && unchanged(request, etag, lastModified) ? request.range(size) : null;
+            if (range == Request.UNSATISFIABLE) {
+                final String responseString = Response.rangeNotSatisfiable(size).connection(request, keepAlive).toString();
+                outputStream.write(responseString.getBytes(StandardCharsets.UTF_8));
+                return new Result(responseString, hit);
+            }
+            if (range != null) {
+                final String responseString = Response.partial(range[0], range[1], size).encoding(false, variant != null).validators(etag, lastModified).connection(request, keepAlive).toString();
+                outputStream.write(responseString.getBytes(StandardCharsets.UTF_8));
+                transferTo(content, range[0], range[1] - range[0] + 1, outputStream);
                 return new Result(responseString, hit);
             }
+            final Response response = Response.ok(size).encoding(gzip, variant != null).validators(etag, lastModified);
+            final byte[] bytes = memoryCache.accepts(size) ? Files.readAllBytes(served) : null;
+            if (bytes != null && bytes.length == size) memoryCache.put(memoryKey, response.copy(), bytes);
+            final String responseString = response.connection(request, keepAlive).toString();
+            outputStream.write(responseString.getBytes(StandardCharsets.UTF_8));
+            if (isGet && bytes != null) outputStream.write(bytes);
+            else if (isGet) transferTo(served, outputStream);
+            return new Result(responseString, hit);
         }
-        final String responseString = "HTTP/1.1 404 Not Found\r\n\r\n";
-        outputStream.write(responseString.getBytes(StandardCharsets.UTF_8));
         System.out.println("Missing: " + requestUri);
-        return new Result(responseString, hit);
+        if (!maven.failed(checksum == null ? data : checksum.data(data))) { //the listing lacks the file or no repo has it
+            negativeCache.add(requestUri);
+        }
+        return notFound(request, keepAlive, outputStream, hit);
     }
 
-    private boolean missing(Path cacheSubDir) throws IOException {
-        if (!Files.exists(cacheSubDir)) return true;
-        try (Stream<Path> files = Files.list(cacheSubDir)) {
-            return !files.findAny().isPresent();
+    /**
+     * A download of the file failed or broke off during the fill of its directory, it is retried or resumed on request.
+     */
+    private boolean retry(Path cacheSubDir, String file) {
+        final Path data = cacheSubDir.resolve(Checksum.data(file));
+        return !index.exists(cacheSubDir.resolve(file)) && (maven.failed(data) || Files.exists(data.resolveSibling(data.getFileName() + ".part")));
+    }
+
+    /**
+     * <code>If-None-Match</code> takes precedence over <code>If-Modified-Since</code>.
+     *
+     * @return true, if the client has the cached file already
+     */
+    private static boolean notModified(Request request, String etag, long lastModified) {
+        final String ifNoneMatch = request.header("if-none-match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) tag = tag.substring(2); //weak comparison
+                if (tag.equals("*") || tag.equals(etag)) return true;
+            }
+            return false;
         }
+        return request.header("if-modified-since") != null && lastModified <= request.date("if-modified-since");
+    }
+
+    /**
+     * <code>If-Range</code> carries the entity tag or the date of the last modification, the client has.
+     *
+     * @return true, if the cached file is still the one, the client has
+     */
+    private static boolean unchanged(Request request, String etag, long lastModified) {
+        final String ifRange = request.header("if-range");
+        if (ifRange == null) return true;
+        if (ifRange.startsWith("\"")) return ifRange.equals(etag);
+        return request.date("if-range") == lastModified;
     }
 
+    /**
+     * @return the quoted SHA-1 of the file; null, if it has no SHA-1 sidecar
+     */
+    private static String etag(Path data) throws IOException {
+        try {
+            return "\"" + new String(Files.readAllBytes(Checksum.SHA1.sidecar(data)), StandardCharsets.UTF_8).trim() + "\"";
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static Result notFound(Request request, boolean keepAlive, OutputStream outputStream, boolean fromCache) throws IOException {
+        final String responseString = Response.notFound().connection(request, keepAlive).toString();
+        outputStream.write(responseString.getBytes(StandardCharsets.UTF_8));
+        return new Result(responseString, fromCache);
+    }
+
+    /**
+     * Cheap check without network access, whether the request can be answered from the cache.
+     */
+    boolean isCached(Request request) throws IOException {
+        final String requestUri = request.uri;
+        if (!requestUri.startsWith("/")) return true; //answered with 400
+        int pos = requestUri.lastIndexOf("/");
+        if (requestUri.substring(pos + 1).endsWith("maven-metadata.xml")) return properties.proxyOffline || maven.hasMetadata(requestUri);
+        if (properties.proxyOffline) return true;
+        final String dir = requestUri.substring(0, pos + 1);
+        if (memoryCache.contains(requestUri)) return true;
+        if (negativeCache.contains(dir) || negativeCache.contains(requestUri)) return true;
+        final Path cacheSubDir = properties.proxyLocation.resolve(dir.substring(1));
+        final String file = requestUri.substring(pos + 1);
+        if (lazy) {
+            return index.exists(cacheSubDir.resolve(file)) || index.exists(cacheSubDir.resolve(Checksum.data(file)));
+        }
+        return !fills.containsKey(dir) && !index.missing(cacheSubDir) && !retry(cacheSubDir, file);
+    }
+
+    /**
+     * Loads a directory, nobody asked for yet, with the lowest priority. In lazy mode only the module metadata, the pom
+     * and the jar are loaded.
+     */
+    void prefetch(String dir) {
+        if (properties.proxyOffline || negativeCache.contains(dir)) return;
+        final Path cacheSubDir = properties.proxyLocation.resolve(dir.substring(1));
+        try {
+            if (lazy) {
+                String[] segments = dir.split("/");
+                String base = segments[segments.length - 2] + "-" + segments[segments.length - 1];
+                for (String file : new String[]{base + ".module", base + ".pom", base + ".jar"}) {
+                    if (!index.exists(cacheSubDir.resolve(file)) && !negativeCache.contains(dir + file)) {
+                        if (!fetch(dir, cacheSubDir, file, null, Scheduler.Priority.PREFETCH)) negativeCache.add(dir + file);
+                    }
+                }
+            } else if (!fills.containsKey(dir) && index.missing(cacheSubDir)) {
+                fill(dir, cacheSubDir, null, null, Scheduler.Priority.PREFETCH);
+            }
+        } catch (FileNotFoundException e) {
+            negativeCache.add(dir);
+        } catch (IOException | AssertionError e) {
+            System.out.println("Prefetch of " + dir + " failed: " + e);
+        }
+    }
+
+    /**
+     * Loads a single file for <code>proxy.fill=lazy</code>. Concurrent requests for the same file wait for the same
+     * download.
+     *
+     * @return false, if no repo has the file; a failed download is thrown
+     */
+    private boolean fetch(String dir, Path cacheSubDir, String file, Utils.Tee tee, Scheduler.Priority priority) throws IOException {
+        final CompletableFuture<Boolean> own = new CompletableFuture<>();
+        final CompletableFuture<Boolean> running = fetches.putIfAbsent(dir + file, own);
+        if (running != null) return await(running);
+        try {
+            if (index.exists(cacheSubDir.resolve(file))) { //loaded, while we were checking
+                own.complete(true);
+            } else {
+                own.complete(maven.fetch(dir, cacheSubDir, file, tee, priority));
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            fetches.remove(dir + file, own);
+        }
+        return own.join();
+    }
+
+    /**
+     * Loads the directory from the remote repos and waits only for the requested file, the other files of the directory
+     * follow in the background. Concurrent requests for the same directory wait for the file they ask for, instead of
+     * downloading the same files again. Only the registration of the fill decides, whether the directory is missing,
+     * so a request never sees the directory of a running fill as complete.
+     *
+     * @return false, if the directory was cached already
+     */
+    private boolean fill(String dir, Path cacheSubDir, String file, Utils.Tee tee, Scheduler.Priority background) throws IOException {
+        final CompletableFuture<Map<String, CompletableFuture<Void>>> own = new CompletableFuture<>();
+        final CompletableFuture<Map<String, CompletableFuture<Void>>> running = fills.putIfAbsent(dir, own);
+        if (running != null) {
+            awaitFile(await(running), file);
+            return true;
+        }
+        final Map<String, CompletableFuture<Void>> downloads;
+        try {
+            if (!index.missing(cacheSubDir)) {
+                own.complete(Collections.emptyMap());
+                fills.remove(dir, own);
+                return false;
+            }
+            if (maven.fromShared(cacheSubDir)) { //filled by another project
+                downloads = Collections.emptyMap();
+            } else {
+                MavenListing listing = maven.index(dir);
+                //System.out.println(listing);
+                downloads = maven.load(listing, properties.proxyLocation, file, tee, background);
+            }
+            own.complete(downloads);
+        } catch (IOException | RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            fills.remove(dir, own);
+            throw e;
+        }
+        CompletableFuture.allOf(downloads.values().toArray(new CompletableFuture<?>[0]))
+                .whenComplete((result, e) -> fills.remove(dir, own));
+        awaitFile(downloads, file);
+        return true;
+    }
+
+    /**
+     * Sends the response head as soon as the remote repo announced the length, followed by the content while it is
+     * downloaded. The final chunk is held back, until the download was verified, so a client never gets a complete
+     * response with content, that doesn't match the SHA-1.
+     */
+    private static final class StreamThrough implements Utils.Tee {
+        private final Request request;
+        private final boolean keepAlive;
+        private final OutputStream outputStream;
+        private volatile String responseString;
+        private long contentLength;
+        private long sent;
+        private byte[] last;
+
+        StreamThrough(Request request, boolean keepAlive, OutputStream outputStream) {
+            this.request = request;
+            this.keepAlive = keepAlive;
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public OutputStream open(long contentLength) throws IOException {
+            if (contentLength < 0) return null; //can't frame the response, serve it from the cache
+            this.contentLength = contentLength;
+            final String head = Response.ok(contentLength).connection(request, keepAlive).toString();
+            outputStream.write(head.getBytes(StandardCharsets.UTF_8));
+            responseString = head;
+            return new FilterOutputStream(outputStream) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if (sent + len >= contentLength) { //sent by complete()
+                        last = Arrays.copyOfRange(b, off, off + len);
+                        return;
+                    }
+                    out.write(b, off, len);
+                    sent += len;
+                }
+            };
+        }
+
+        /**
+         * Sends the final chunk, after the download was verified.
+         *
+         * @return false, if the content is incomplete
+         */
+        boolean complete() throws IOException {
+            if (last != null && sent + last.length == contentLength) {
+                outputStream.write(last);
+                sent += last.length;
+            }
+            return sent == contentLength;
+        }
+    }
+
+    private void awaitFile(Map<String, CompletableFuture<Void>> downloads, String file) throws IOException {
+        if (file == null) return; //prefetch, nobody waits for a file
+        CompletableFuture<Void> download = downloads.get(file);
+        if (download == null) download = downloads.get(Checksum.data(file));
+        if (download == null) return;
+        maven.prioritise(download);
+        await(download.handle((result, e) -> null)); //a failed download is retried by the request
+    }
+
+    static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Serves a single request and closes the connection afterwards. An idle persistent connection would block one of
+     * the <code>proxy.threads</code> workers, so connections are only kept alive by the nio server. A client, that
+     * doesn't send its request within <code>proxy.keepalive.timeout</code>, is dropped.
+     */
     void handle(Socket socket) throws IOException {
-        final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        final String requestLine = reader.readLine(); //ignore header and body
-        final OutputStream outputStream = socket.getOutputStream();
-        final Result result = handle(requestLine, outputStream);
+        socket.setSoTimeout(properties.proxyKeepAliveTimeout);
+        final InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+        final OutputStream outputStream = socket.getChannel() != null
+                ? new ChannelOutputStream(socket.getChannel())
+                : new BufferedOutputStream(socket.getOutputStream());
+        final Request request;
+        try {
+            request = Request.read(inputStream);
+        } catch (SocketTimeoutException e) {
+            return;
+        }
+        if (request == null) return;
+        final Result result = handle(request, false, outputStream);
         outputStream.flush();
         if (!result.fromCache) {
-            System.out.println(requestLine + " -> " + result.getSimpleResponseString());
+            System.out.println(request + " -> " + result.getSimpleResponseString());
         }
     }
 }
-
@@ -0,0 +1,148 @@
+package de.mheinzerling.mavenproxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Request line and headers of a single HTTP request. Header names are stored lower case.
+ */
+final class Request {
+    static final int MAX_HEAD = 16 * 1024;
+    /** a range, that doesn't overlap the file */
+    static final long[] UNSATISFIABLE = new long[0];
+
+    final String requestLine;
+    final String method;
+    final String uri;
+    final String version;
+    private final Map<String, String> headers = new HashMap<>();
+
+    Request(String requestLine) {
+        this.requestLine = requestLine;
+        final String[] parts = requestLine.split(" +");
+        this.method = parts[0];
+        this.uri = parts.length > 1 ? parts[1] : "";
+        this.version = parts.length > 2 ? parts[parts.length - 1] : "HTTP/1.0";
+    }
+
+    /**
+     * @param head request line and header lines, separated by CRLF or LF
+     */
+    static Request parse(String head) {
+        final String[] lines = head.split("\r?\n");
+        final Request request = new Request(lines[0]);
+        for (int i = 1; i < lines.length; i++) {
+            request.addHeader(lines[i]);
+        }
+        return request;
+    }
+
+    /**
+     * @return the next request of the stream or null, if the stream ended before a new request
+     */
+    static Request read(InputStream inputStream) throws IOException {
+        String requestLine = readLine(inputStream);
+        if (requestLine == null) return null;
+        final Request request = new Request(requestLine);
+        int size = requestLine.length();
+        for (String line; (line = readLine(inputStream)) != null && !line.isEmpty(); ) {
+            size += line.length();
+            if (size > MAX_HEAD) throw new IOException("Request head too large: " + requestLine);
+            request.addHeader(line);
+        }
+        return request;
+    }
+
+    private static String readLine(InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = inputStream.read()) >= 0 && b != '\n') {
+            if (line.size() > MAX_HEAD) throw new IOException("Request line too large");
+            line.write(b);
+        }
+        if (b < 0 && line.size() == 0) return null;
+        final String result = new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+        return result.endsWith("\r") ? result.substring(0, result.length() - 1) : result;
+    }
+
+    private void addHeader(String line) {
+        int colon = line.indexOf(':');
+        if (colon <= 0) return;
+        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+    }
+
+    String header(String name) {
+        return headers.get(name);
+    }
+
+    /**
+     * Only a single byte range is supported, like <code>bytes=0-499</code>, <code>bytes=500-</code> or
+     * <code>bytes=-500</code>.
+     *
+     * @return first and last byte of the requested range; null, if the whole file is requested
+     */
+    long[] range(long size) {
+        final String range = header("range");
+        if (range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0) return null;
+        final String spec = range.substring("bytes=".length()).trim();
+        final int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+        try {
+            final String first = spec.substring(0, dash).trim();
+            final String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) { //suffix
+                final long length = Long.parseLong(last);
+                if (length <= 0 || size == 0) return UNSATISFIABLE;
+                return new long[]{Math.max(0, size - length), size - 1};
+            }
+            final long start = Long.parseLong(first);
+            final long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start) return null;
+            if (start >= size) return UNSATISFIABLE;
+            return new long[]{start, Math.min(end, size - 1)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the date of the header in seconds since the epoch; {@link Long#MIN_VALUE}, if it is missing or invalid
+     */
+    long date(String name) {
+        final String date = header(name);
+        if (date == null) return Long.MIN_VALUE;
+        try {
+            return ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    boolean isHttp11() {
+        return !version.equals("HTTP/1.0");
+    }
+
+    /**
+     * HTTP/1.1 connections are persistent unless the client asks to close them, HTTP/1.0 connections only on request.
+     */
+    boolean keepAlive() {
+        final String connection = header("connection");
+        if (connection == null) return isHttp11();
+        final String value = connection.toLowerCase(Locale.ROOT);
+        if (value.contains("close")) return false;
+        return isHttp11() || value.contains("keep-alive");
+    }
+
+    @Override
+    public String toString() {
+        return requestLine;
+    }
+}
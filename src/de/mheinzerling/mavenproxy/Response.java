@@ -0,0 +1,99 @@
+package de.mheinzerling.mavenproxy;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Builder for the status line and headers of a response.
+ */
+final class Response {
+    /** IMF-fixdate of RFC 7231, RFC_1123_DATE_TIME doesn't pad the day */
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private final StringBuilder head = new StringBuilder();
+
+    private Response(String status) {
+        head.append("HTTP/1.1 ").append(status).append("\r\n");
+    }
+
+    private Response(Response template) {
+        head.append(template.head);
+    }
+
+    static Response ok(long contentLength) {
+        return new Response("200 OK").header("content-length", contentLength);
+    }
+
+    static Response partial(long start, long end, long size) {
+        return new Response("206 Partial Content").header("content-length", end - start + 1)
+                .header("content-range", "bytes " + start + "-" + end + "/" + size);
+    }
+
+    static Response rangeNotSatisfiable(long size) {
+        return new Response("416 Range Not Satisfiable").header("content-range", "bytes */" + size).header("content-length", 0);
+    }
+
+    static Response notModified() {
+        return new Response("304 Not Modified");
+    }
+
+    static Response badRequest() {
+        return new Response("400 Bad Request").header("content-length", 0);
+    }
+
+    static Response notFound() {
+        return new Response("404 Not Found").header("content-length", 0);
+    }
+
+    Response copy() {
+        return new Response(this);
+    }
+
+    Response header(String name, Object value) {
+        head.append(name).append(": ").append(value).append("\r\n");
+        return this;
+    }
+
+    /**
+     * @param etag         quoted entity tag; omitted, if null
+     * @param lastModified seconds since the epoch
+     */
+    Response validators(String etag, long lastModified) {
+        if (etag != null) header("etag", etag);
+        return header("last-modified", HTTP_DATE.format(Instant.ofEpochSecond(lastModified)));
+    }
+
+    /**
+     * @param gzip     the content is compressed
+     * @param variants the file has a compressed variant, so the response depends on <code>Accept-Encoding</code>
+     */
+    Response encoding(boolean gzip, boolean variants) {
+        if (gzip) header("content-encoding", "gzip");
+        if (variants) header("vary", "accept-encoding");
+        return this;
+    }
+
+    /**
+     * Only deviations from the protocol default are announced: a closing HTTP/1.1 or a persistent HTTP/1.0 connection.
+     */
+    Response connection(Request request, boolean keepAlive) {
+        if (!announcesConnection(request, keepAlive)) return this;
+        return header("connection", keepAlive ? "keep-alive" : "close");
+    }
+
+    static boolean announcesConnection(Request request, boolean keepAlive) {
+        return request.isHttp11() != keepAlive;
+    }
+
+    byte[] getBytes() {
+        return toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return head + "\r\n";
+    }
+}
@@ -0,0 +1,128 @@
+package de.mheinzerling.mavenproxy;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived scheduler for all upstream transfers of the proxy. At most <code>remote.threads</code> transfers run
+ * at once and at most <code>remote.threads.repo</code> against a single repo. Waiting transfers start by priority,
+ * then in submission order. Threads are reused between transfers.
+ */
+final class Scheduler {
+    enum Priority {
+        /** a client waits for exactly this file */
+        REQUESTED,
+        /** completes a directory, that was requested */
+        FILL,
+        /** speculative, nobody waits for it */
+        PREFETCH
+    }
+
+    private final int maxTotal;
+    private final int maxPerRepo;
+    private final TreeSet<Task<?>> waiting = new TreeSet<>(Comparator.<Task<?>, Priority>comparing(t -> t.priority).thenComparingLong(t -> t.sequence));
+    private final Map<String, Integer> runningPerRepo = new HashMap<>();
+    private final ExecutorService threads;
+    private int running;
+    private long sequence;
+
+    Scheduler(int maxTotal, int maxPerRepo) {
+        this.maxTotal = maxTotal;
+        this.maxPerRepo = maxPerRepo;
+        final AtomicInteger count = new AtomicInteger();
+        this.threads = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "download-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    <T> CompletableFuture<T> submit(String repo, Priority priority, Callable<T> callable) {
+        final Task<T> task;
+        synchronized (this) {
+            task = new Task<>(repo, priority, sequence++, callable);
+            waiting.add(task);
+            dispatch();
+        }
+        return task.future;
+    }
+
+    /**
+     * Moves a waiting task ahead of all tasks with a lower priority. Running or finished tasks are unaffected.
+     */
+    synchronized void raise(CompletableFuture<?> future, Priority priority) {
+        for (Task<?> task : waiting) {
+            if (task.future != future) continue;
+            if (task.priority.compareTo(priority) > 0) {
+                waiting.remove(task);
+                task.priority = priority;
+                waiting.add(task);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Starts waiting tasks as long as there are free slots. Must hold the lock.
+     */
+    private void dispatch() {
+        Iterator<Task<?>> iterator = waiting.iterator();
+        while (running < maxTotal && iterator.hasNext()) {
+            Task<?> task = iterator.next();
+            if (task.future.isDone()) { //cancelled while waiting
+                iterator.remove();
+                continue;
+            }
+            int repoRunning = runningPerRepo.getOrDefault(task.repo, 0);
+            if (repoRunning >= maxPerRepo) continue;
+            iterator.remove();
+            runningPerRepo.put(task.repo, repoRunning + 1);
+            running++;
+            threads.execute(() -> run(task));
+        }
+    }
+
+    private void run(Task<?> task) {
+        try {
+            task.run();
+        } finally {
+            synchronized (this) {
+                running--;
+                runningPerRepo.merge(task.repo, -1, Integer::sum);
+                dispatch();
+            }
+        }
+    }
+
+    private static final class Task<T> {
+        final String repo;
+        Priority priority;
+        final long sequence;
+        final Callable<T> callable;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Task(String repo, Priority priority, long sequence, Callable<T> callable) {
+            this.repo = repo;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.callable = callable;
+        }
+
+        void run() {
+            if (future.isDone()) return;
+            try {
+                future.complete(callable.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package de.mheinzerling.mavenproxy;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Second cache level shared by all projects of a user (<code>proxy.shared</code>). Every file loaded by a project is
+ * published to the shared cache and a file missing in a project is taken from there, before asking the remote repos.
+ * Files are hard linked, so they occupy the disk only once; across file systems they are copied.
+ * A directory is only taken as a whole, if a project mirrored it completely.
+ */
+final class SharedCache {
+    /** marks a directory, that was mirrored completely */
+    private static final String COMPLETE = ".complete";
+
+    private final Path root;
+    private final Path local;
+
+    SharedCache(Properties properties) {
+        this.root = properties.proxyShared;
+        this.local = properties.proxyLocation;
+    }
+
+    /**
+     * Links all files of a completely mirrored directory into the project.
+     *
+     * @return the linked files; empty, if the shared cache doesn't have the complete directory
+     */
+    List<Path> materialiseDirectory(Path directory) throws IOException {
+        Path shared = shared(directory);
+        List<Path> files = new ArrayList<>();
+        if (!Files.exists(shared.resolve(COMPLETE))) return files;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(shared)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.startsWith(".") || name.endsWith(".part") || name.endsWith(".tmp") || Files.isDirectory(path)) continue;
+                link(path, directory.resolve(name));
+                files.add(directory.resolve(name));
+            }
+        }
+        System.out.println("Linked " + files.size() + " files of " + shared);
+        return files;
+    }
+
+    /**
+     * Links the file and its checksum sidecars into the project.
+     *
+     * @return false, if the shared cache doesn't have the file
+     */
+    boolean materialise(Path file) throws IOException {
+        Path shared = shared(file);
+        if (!Files.exists(shared)) return false;
+        Files.createDirectories(file.getParent());
+        for (Checksum checksum : Checksum.values()) {
+            if (Files.exists(checksum.sidecar(shared))) link(checksum.sidecar(shared), checksum.sidecar(file));
+        }
+        link(shared, file); //last, the sidecars are complete, once the file exists
+        return true;
+    }
+
+    /**
+     * Links the file, that was added to the project, and its checksum sidecars into the shared cache.
+     *
+     * @param content the file itself or its blob
+     */
+    void publish(Path file, Path content) {
+        try {
+            Path shared = shared(file);
+            Files.createDirectories(shared.getParent());
+            for (Checksum checksum : Checksum.values()) {
+                if (Files.exists(checksum.sidecar(file))) link(checksum.sidecar(file), checksum.sidecar(shared));
+            }
+            link(content, shared);
+        } catch (IOException e) {
+            System.out.println("Can't share " + file + ": " + e);
+        }
+    }
+
+    /**
+     * Marks the directory as mirrored completely, after all its files were published.
+     */
+    void complete(Path directory) {
+        if (!Files.isDirectory(directory)) return; //discarded after a failed download
+        try {
+            Path shared = shared(directory);
+            if (!Files.isDirectory(shared)) return;
+            Files.write(shared.resolve(COMPLETE), new byte[0]);
+        } catch (IOException e) {
+            System.out.println("Can't share " + directory + ": " + e);
+        }
+    }
+
+    private Path shared(Path path) {
+        return root.resolve(local.relativize(path.toAbsolutePath()).toString());
+    }
+
+    /**
+     * Creates a hard link; copies the file, if the file system doesn't support it or the file is on another one.
+     */
+    private static void link(Path existing, Path link) throws IOException {
+        if (Files.exists(link)) return;
+        try {
+            Files.createLink(link, existing);
+        } catch (FileAlreadyExistsException e) {
+            //ignore, linked concurrently
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Path temp = Files.createTempFile(link.toAbsolutePath().getParent(), link.getFileName() + ".", ".tmp"); //one per copy, projects link concurrently
+            try {
+                Files.copy(existing, temp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temp, link, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
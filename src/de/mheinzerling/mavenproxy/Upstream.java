@@ -0,0 +1,38 @@
+package de.mheinzerling.mavenproxy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Client for all requests to the remote repos.
+ */
+interface Upstream {
+    /**
+     * Status and headers of a GET request. Closing it releases the connection for the next request.
+     */
+    interface Reply extends Closeable {
+        int status();
+
+        /**
+         * @return -1 if unknown
+         */
+        long contentLength();
+
+        String header(String name);
+
+        /**
+         * @throws java.io.FileNotFoundException if the remote repo doesn't have the file
+         * @throws IOException                   for any other failure status
+         */
+        InputStream body() throws IOException;
+    }
+
+    Reply get(String url, Map<String, String> headers) throws IOException;
+
+    default Reply get(String url) throws IOException {
+        return get(url, Collections.emptyMap());
+    }
+}
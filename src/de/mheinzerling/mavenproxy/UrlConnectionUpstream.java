@@ -0,0 +1,117 @@
+package de.mheinzerling.mavenproxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * {@link Upstream} based on {@link HttpURLConnection}. Connections are kept alive and reused, as long as every reply
+ * is read completely and closed; the number of idle connections per host is set by {@link #configure(Properties)}.
+ * Failed connects, timeouts and 429/5xx answers are retried <code>remote.retries</code> times, waiting
+ * <code>remote.retry.backoff</code> ms, doubled on each retry. Failures while reading the content are not retried
+ * here, downloads resume them with a range request.
+ */
+final class UrlConnectionUpstream implements Upstream {
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int retries;
+    private final int backoff;
+
+    UrlConnectionUpstream(Properties properties) {
+        this.connectTimeout = properties.remoteTimeoutConnect;
+        this.readTimeout = properties.remoteTimeoutRead;
+        this.retries = properties.remoteRetries;
+        this.backoff = properties.remoteRetryBackoff;
+    }
+
+    /**
+     * Keeps <code>remote.connections</code> idle connections per host, unless the JVM wide
+     * <code>http.maxConnections</code> is set explicitly. The JVM reads it only once, when the first connection is
+     * opened, so this is called on startup, before anything connects.
+     */
+    static void configure(Properties properties) {
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(properties.remoteConnections));
+        }
+    }
+
+    @Override
+    public Reply get(String url, Map<String, String> headers) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setConnectTimeout(connectTimeout);
+            conn.setReadTimeout(readTimeout);
+            conn.setUseCaches(false);
+            headers.forEach(conn::setRequestProperty);
+            try {
+                int status = conn.getResponseCode();
+                if (attempt >= retries || !(status == 429 || status >= 500)) return new UrlConnectionReply(conn, status);
+                new UrlConnectionReply(conn, status).close();
+                System.out.println("Retrying " + url + " after " + status);
+            } catch (IOException e) {
+                if (attempt >= retries) throw e;
+                conn.disconnect();
+                System.out.println("Retrying " + url + " after " + e);
+            }
+            try {
+                Thread.sleep((long) backoff << attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    private static final class UrlConnectionReply implements Reply {
+        private final HttpURLConnection conn;
+        private final int status;
+        private InputStream body;
+
+        UrlConnectionReply(HttpURLConnection conn, int status) {
+            this.conn = conn;
+            this.status = status;
+        }
+
+        @Override
+        public int status() {
+            return status;
+        }
+
+        @Override
+        public long contentLength() {
+            return conn.getContentLengthLong();
+        }
+
+        @Override
+        public String header(String name) {
+            return conn.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream body() throws IOException {
+            if (body == null) body = conn.getInputStream();
+            return body;
+        }
+
+        /**
+         * An unread error body is consumed, otherwise the connection can't be reused.
+         */
+        @Override
+        public void close() throws IOException {
+            if (body != null) {
+                body.close();
+                return;
+            }
+            InputStream error = conn.getErrorStream();
+            if (error == null) return;
+            try (InputStream in = error) {
+                byte[] buf = new byte[1024];
+                //noinspection StatementWithEmptyBody
+                while (in.read(buf) > 0) ;
+            }
+        }
+    }
+}
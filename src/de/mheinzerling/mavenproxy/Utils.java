@@ -1,34 +1,147 @@
 package de.mheinzerling.mavenproxy;
 
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.URL;
-import java.net.URLConnection;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.Formatter;
+import java.util.HashMap;
+import java.util.Map;
 
 public class Utils {
+    private static final ThreadLocal<ByteBuffer> DIGEST_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(64 * 1024));
 
-    static void loadToFile(String sourceUrl, Path target) throws IOException {
-        URLConnection conn = new URL(sourceUrl).openConnection();
-        try (InputStream in = conn.getInputStream();
-             OutputStream out = Files.newOutputStream(target)
-        ) {
-            transferTo(in, out);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Receives the bytes of a download while they are written to the cache.
+     */
+    interface Tee {
+        /**
+         * @param contentLength announced by the remote repo; -1 if unknown
+         * @return the stream to copy the content to; null to skip streaming
+         */
+        OutputStream open(long contentLength) throws IOException;
+    }
+
+    /**
+     * Hashes the content while it is written.
+     *
+     * @return hex encoded digests in the order of the algorithms
+     */
+    static String[] loadToFile(Upstream upstream, String sourceUrl, Path target, String... algorithms) throws IOException {
+        return loadToFile(upstream, sourceUrl, target, null, 0, algorithms);
+    }
+
+    /**
+     * Hashes the content while it is written and streams it to the tee. A failing tee is dropped, the download into
+     * the file continues. An existing target is resumed with a range request, as well as a download, that broke off,
+     * up to <code>resumes</code> times. If the remote repo ignores the range, the file is loaded from the start.
+     *
+     * @return hex encoded digests in the order of the algorithms
+     */
+    static String[] loadToFile(Upstream upstream, String sourceUrl, Path target, Tee tee, int resumes, String... algorithms) throws IOException {
+        MessageDigest[] digests = digests(algorithms);
+        long hashed = 0; //bytes of the target, that were hashed and sent to the client
+        OutputStream client = null;
+        boolean opened = false;
+        byte[] buf = new byte[8192];
+        attempts:
+        for (int attempt = 0; ; attempt++) {
+            long offset = Files.exists(target) ? Files.size(target) : 0;
+            Map<String, String> headers = offset > 0 ? Collections.singletonMap("Range", "bytes=" + offset + "-") : Collections.emptyMap();
+            try (Upstream.Reply reply = upstream.get(sourceUrl, headers)) {
+                long contentLength = reply.contentLength();
+                if (offset > 0 && reply.status() == 416) { //nothing left to resume, e.g. the file shrank
+                    Files.delete(target);
+                    continue;
+                }
+                String range = reply.status() == 206 ? reply.header("Content-Range") : null;
+                if (offset > 0 && range != null && range.startsWith("bytes " + offset + "-")) {
+                    String total = range.substring(range.indexOf('/') + 1);
+                    contentLength = total.equals("*") ? -1 : Long.parseLong(total);
+                } else if (offset > 0) {
+                    offset = 0;
+                }
+                InputStream in = reply.body();
+                long expected = reply.contentLength() < 0 ? -1 : offset + reply.contentLength();
+                if (offset < hashed) { //starting over, the client can't take back what it got
+                    digests = digests(algorithms);
+                    hashed = 0;
+                    client = null;
+                }
+                if (tee != null && !opened) {
+                    opened = true;
+                    client = tee.open(contentLength);
+                }
+                try (OutputStream out = Files.newOutputStream(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        offset > 0 ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING)) {
+                    if (hashed < offset) { //left by an earlier download
+                        try (InputStream prefix = Channels.newInputStream(FileChannel.open(target, StandardOpenOption.READ).position(hashed))) {
+                            for (int length; hashed < offset && (length = prefix.read(buf, 0, (int) Math.min(buf.length, offset - hashed))) > 0; hashed += length) {
+                                for (MessageDigest digest : digests) digest.update(buf, 0, length);
+                                client = send(client, buf, length);
+                            }
+                        }
+                    }
+                    while (true) {
+                        int length;
+                        try {
+                            length = in.read(buf);
+                            if (length < 0 && hashed < expected) throw new EOFException("Premature EOF after " + hashed + " of " + expected + " bytes");
+                        } catch (IOException e) {
+                            if (attempt >= resumes) throw e;
+                            System.out.println("Resuming " + sourceUrl + " at " + hashed + " after " + e);
+                            continue attempts;
+                        }
+                        if (length < 0) return hex(digests);
+                        out.write(buf, 0, length);
+                        for (MessageDigest digest : digests) digest.update(buf, 0, length);
+                        client = send(client, buf, length);
+                        hashed += length;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the client or null, if the client is gone
+     */
+    private static OutputStream send(OutputStream client, byte[] buf, int length) {
+        if (client == null) return null;
+        try {
+            client.write(buf, 0, length);
+            return client;
+        } catch (IOException e) {
+            return null; //client is gone, keep filling the cache
         }
     }
 
-    static String loadToString(String url) throws IOException {
-        URLConnection conn = new URL(url).openConnection();
-        try (InputStream in = conn.getInputStream();
+    static String loadToString(Upstream upstream, String url) throws IOException {
+        try (Upstream.Reply reply = upstream.get(url);
+             InputStream in = reply.body();
              OutputStream out = new ByteArrayOutputStream()
         ) {
             transferTo(in, out);
@@ -39,6 +152,50 @@ public class Utils {
         }
     }
 
+    /**
+     * Result of a conditional request.
+     */
+    static final class Remote {
+        final int status;
+        /** null, unless the status is 200 */
+        final byte[] content;
+        final String etag;
+        final String lastModified;
+
+        Remote(int status, byte[] content, String etag, String lastModified) {
+            this.status = status;
+            this.content = content;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        boolean notModified() {
+            return status == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+    }
+
+    /**
+     * @param etag         sent as <code>If-None-Match</code>, may be null
+     * @param lastModified sent as <code>If-Modified-Since</code>, may be null
+     * @return the content; without content, if it is unchanged or missing (404/410)
+     * @throws IOException on any other status, e.g. 5xx, 429 or 403, so a failing repo isn't mistaken for a miss
+     */
+    static Remote loadIfModified(Upstream upstream, String url, String etag, String lastModified) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        if (etag != null) headers.put("If-None-Match", etag);
+        if (lastModified != null) headers.put("If-Modified-Since", lastModified);
+        try (Upstream.Reply reply = upstream.get(url, headers)) {
+            int status = reply.status();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED || status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+                return new Remote(status, null, etag, lastModified);
+            }
+            if (status != HttpURLConnection.HTTP_OK) throw new IOException("Server returned HTTP response code: " + status + " for URL: " + url);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            transferTo(reply.body(), out);
+            return new Remote(status, out.toByteArray(), reply.header("ETag"), reply.header("Last-Modified"));
+        }
+    }
+
     static void transferTo(InputStream source, OutputStream target) throws IOException {
         byte[] buf = new byte[8192];
         int length;
@@ -47,20 +204,137 @@ public class Utils {
         }
     }
 
-    static String checksum(Path file, String algorithm) throws IOException {
-        try (Formatter formatter = new Formatter()) {
-            byte[] content = Files.readAllBytes(file);
+    /**
+     * Copies the file to the target. If the target is backed by a channel, the kernel transfers the data
+     * directly (sendfile), otherwise it is streamed through a buffer.
+     */
+    static void transferTo(Path source, OutputStream target) throws IOException {
+        transferTo(source, 0, Long.MAX_VALUE, target);
+    }
 
-            MessageDigest crypt = MessageDigest.getInstance(algorithm);
-            crypt.reset();
-            crypt.update(content);
-            byte[] hash = crypt.digest();
-            for (byte b : hash) {
-                formatter.format("%02x", b);
+    /**
+     * Like {@link #transferTo(Path, OutputStream)}, but only <code>count</code> bytes starting at <code>position</code>.
+     */
+    static void transferTo(Path source, long position, long count, OutputStream target) throws IOException {
+        try (FileChannel file = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = file.size();
+            long end = size - position < count ? size : position + count;
+            if (!(target instanceof ChannelOutputStream)) {
+                InputStream in = Channels.newInputStream(file.position(position));
+                byte[] buf = new byte[8192];
+                for (int length; position < end && (length = in.read(buf, 0, (int) Math.min(buf.length, end - position))) > 0; position += length) {
+                    target.write(buf, 0, length);
+                }
+                return;
+            }
+            target.flush();
+            WritableByteChannel channel = ((ChannelOutputStream) target).channel;
+            while (position < end) {
+                long transferred = file.transferTo(position, end - position, channel);
+                if (transferred <= 0 && position >= file.size()) break; //truncated meanwhile
+                position += transferred;
             }
-            return formatter.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Writes the remaining bytes without changing the buffer; straight to the channel, if the target is backed by one.
+     */
+    static void transferTo(ByteBuffer source, OutputStream target) throws IOException {
+        ByteBuffer buffer = source.duplicate();
+        if (target instanceof ChannelOutputStream) {
+            target.flush();
+            WritableByteChannel channel = ((ChannelOutputStream) target).channel;
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } else if (buffer.hasArray()) {
+            target.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            target.write(bytes);
+        }
+    }
+
+    /**
+     * Computes several digests in a single pass over the file, reading through a reusable direct buffer.
+     *
+     * @return hex encoded digests in the order of the algorithms
+     */
+    static String[] checksums(Path file, String... algorithms) throws IOException {
+        MessageDigest[] digests = digests(algorithms);
+        ByteBuffer buffer = DIGEST_BUFFER.get();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                for (MessageDigest digest : digests) {
+                    buffer.mark();
+                    digest.update(buffer);
+                    buffer.reset();
+                }
+                buffer.clear();
+            }
+        }
+        return hex(digests);
+    }
+
+    static MessageDigest[] digests(String... algorithms) {
+        MessageDigest[] digests = new MessageDigest[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            try {
+                digests[i] = MessageDigest.getInstance(algorithms[i]);
+            } catch (NoSuchAlgorithmException e) {
+                throw new AssertionError(e);
+            }
+        }
+        return digests;
+    }
+
+    static String[] hex(MessageDigest... digests) {
+        String[] result = new String[digests.length];
+        for (int i = 0; i < digests.length; i++) {
+            result[i] = hex(digests[i].digest());
+        }
+        return result;
+    }
+
+    static String hex(byte[] hash) {
+        char[] result = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            result[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    /**
+     * Writes to a temporary file first, so readers never see a partially written file. Each writer uses its own
+     * temporary file, concurrent writers of the same target don't interfere; the last move wins.
+     */
+    static void writeAtomically(Path target, byte[] content) throws IOException {
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName() + ".", ".tmp");
+        try {
+            Files.write(temp, content);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Parses without resolving DTDs or external entities.
+     */
+    static Document parseXml(Path file) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setExpandEntityReferences(false);
+            return factory.newDocumentBuilder().parse(file.toFile());
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Invalid XML " + file, e);
         }
     }
 
@@ -0,0 +1,153 @@
+package de.mheinzerling.mavenproxy;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fills the cache without running builds through the proxy. Reads the coordinates of Gradle lockfiles
+ * (<code>*.lockfile</code>), dependency verification metadata (<code>*.xml</code>) or plain lists with one
+ * <code>group:artifact:version</code> per line, and loads their directories completely.
+ * <pre>
+ * java -cp mavenproxy.jar de.mheinzerling.mavenproxy.Warmup [mavenproxy.properties] gradle.lockfile...
+ * </pre>
+ */
+public class Warmup {
+    private final Properties properties;
+    private final CacheIndex index;
+    private final Maven maven;
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger cached = new AtomicInteger();
+    private final AtomicInteger missing = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private int total;
+
+    private Warmup(Properties properties) throws IOException {
+        this.properties = properties;
+        this.index = new CacheIndex(properties.proxyLocation, properties.proxyState.resolve("index"));
+        index.load(properties.proxyIndexSnapshot);
+        this.maven = new Maven(properties, index);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int first = args.length > 0 && args[0].endsWith(".properties") ? 1 : 0;
+        if (args.length <= first) {
+            System.out.println("Usage: Warmup [mavenproxy.properties] (gradle.lockfile|verification-metadata.xml|coordinates.txt)...");
+            System.exit(2);
+        }
+        final Properties properties = new Properties(first == 1 ? args[0] : null);
+        UrlConnectionUpstream.configure(properties);
+        Set<String> dirs = new LinkedHashSet<>();
+        for (int i = first; i < args.length; i++) {
+            dirs.addAll(directories(Paths.get(args[i])));
+        }
+        boolean complete = new Warmup(properties).run(dirs);
+        System.exit(complete ? 0 : 1);
+    }
+
+    /**
+     * Lists the directories with <code>remote.threads</code> threads; the downloads are scheduled like for requests.
+     *
+     * @return false, if a directory failed to load
+     */
+    private boolean run(Set<String> dirs) {
+        total = dirs.size();
+        System.out.println("Warming up " + total + " directories...");
+        final ExecutorService listing = Executors.newFixedThreadPool(properties.remoteThreads);
+        final ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor();
+        progress.scheduleAtFixedRate(() -> System.out.println(status()), 1, 1, TimeUnit.SECONDS);
+        final List<CompletableFuture<Void>> directories = new ArrayList<>();
+        for (String dir : dirs) {
+            directories.add(CompletableFuture.supplyAsync(() -> warm(dir), listing).thenCompose(f -> f));
+        }
+        CompletableFuture.allOf(directories.toArray(new CompletableFuture<?>[0])).join();
+        listing.shutdown();
+        progress.shutdownNow();
+        System.out.println(status());
+        if (properties.proxyIndexSnapshot) {
+            try {
+                index.writeSnapshot();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return failed.get() == 0;
+    }
+
+    private CompletableFuture<Void> warm(String dir) {
+        final Path cacheSubDir = properties.proxyLocation.resolve(dir.substring(1));
+        try {
+            if (!index.missing(cacheSubDir) || maven.fromShared(cacheSubDir)) {
+                cached.incrementAndGet();
+                done.incrementAndGet();
+                return CompletableFuture.completedFuture(null);
+            }
+            MavenListing listing = maven.index(dir);
+            Map<String, CompletableFuture<Void>> downloads = maven.load(listing, properties.proxyLocation, null, null, Scheduler.Priority.FILL);
+            return CompletableFuture.allOf(downloads.values().toArray(new CompletableFuture<?>[0])).handle((result, e) -> {
+                try {
+                    if (e != null || index.missing(cacheSubDir)) failed.incrementAndGet();
+                } catch (IOException ex) {
+                    failed.incrementAndGet();
+                }
+                done.incrementAndGet();
+                return null;
+            });
+        } catch (FileNotFoundException e) {
+            System.out.println(e.getMessage());
+            missing.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Warmup of " + dir + " failed: " + e);
+            failed.incrementAndGet();
+        }
+        done.incrementAndGet();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private String status() {
+        return "Warmup: " + done + "/" + total + " directories (" + cached + " already cached, " + missing + " missing, " + failed + " failed)";
+    }
+
+    /**
+     * @return the directories of all coordinates in the file
+     */
+    static Set<String> directories(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        Set<String> dirs = new LinkedHashSet<>();
+        if (name.endsWith(".xml")) {
+            NodeList components = Utils.parseXml(file).getElementsByTagName("component");
+            for (int i = 0; i < components.getLength(); i++) {
+                Element component = (Element) components.item(i);
+                dirs.add(Maven.directory(component.getAttribute("group"), component.getAttribute("name"), component.getAttribute("version")));
+            }
+            return dirs;
+        }
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            if (name.endsWith(".lockfile")) line = line.substring(0, line.indexOf('=') < 0 ? line.length() : line.indexOf('='));
+            String[] coordinates = line.split(":");
+            if (coordinates.length < 3) continue; //e.g. "empty=" of a lockfile
+            String version = coordinates[2].split("@")[0]; //g:a:v@ext
+            dirs.add(Maven.directory(coordinates[0], coordinates[1], version));
+        }
+        return dirs;
+    }
+}
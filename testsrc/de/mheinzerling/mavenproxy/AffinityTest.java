@@ -0,0 +1,60 @@
+package de.mheinzerling.mavenproxy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AffinityTest {
+
+    @Test
+    void groupIsRememberedAndPersisted(@TempDir Path root) {
+        Properties properties = properties(root);
+        Affinity affinity = new Affinity(properties);
+        assertEquals(Arrays.asList("a", "b", "c"), affinity.order("/org/example/demo/1.0/"));
+
+        affinity.served("/org/example/demo/1.0/", "c");
+        assertEquals(Arrays.asList("c", "a", "b"), affinity.order("/org/example/other/2.0/"));
+        assertEquals(Arrays.asList("c", "a", "b"), affinity.order("/org/example/sub/demo/maven-metadata.xml"));
+        assertEquals(Arrays.asList("a", "b", "c"), affinity.order("/org/other/demo/1.0/"));
+
+        assertEquals(Arrays.asList("c", "a", "b"), new Affinity(properties).order("/org/example/demo/2.0/"));
+    }
+
+    @Test
+    void failingRepoIsAskedLast(@TempDir Path root) {
+        Affinity affinity = new Affinity(properties(root));
+        affinity.served("/org/example/demo/1.0/", "c");
+        for (int i = 0; i < 4; i++) {
+            affinity.answered("c", 10, true);
+            affinity.answered("a", 10, false);
+        }
+        affinity.answered("b", 5000, false);
+
+        assertEquals(Arrays.asList("a", "c", "b"), affinity.order("/org/example/demo/1.0/"));
+    }
+
+    @Test
+    void topLevelSegmentIsNotLearned(@TempDir Path root) {
+        Affinity affinity = new Affinity(properties(root));
+        affinity.served("/org/foo/maven-metadata.xml", "c");
+        assertEquals(Arrays.asList("a", "b", "c"), affinity.order("/org/example/demo/1.0/"));
+        assertEquals(Arrays.asList("c", "a", "b"), affinity.order("/org/foo/bar/1.0/"));
+
+        affinity.served("/junit/junit/4.12/", "b");
+        assertEquals(Arrays.asList("b", "a", "c"), affinity.order("/junit/junit/4.13/"));
+        assertEquals(Arrays.asList("a", "b", "c"), affinity.order("/junit/other/1.0/"));
+    }
+
+    private static Properties properties(Path root) {
+        Map<String, String> map = new HashMap<>();
+        map.put("proxy.location", root.toString());
+        map.put("remote.repos", "a,b,c");
+        return new Properties(map);
+    }
+}
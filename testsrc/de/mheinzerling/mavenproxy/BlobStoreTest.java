@@ -0,0 +1,41 @@
+package de.mheinzerling.mavenproxy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlobStoreTest {
+
+    @Test
+    void samePathsShareOneBlob(@TempDir Path root) throws IOException {
+        Properties properties = new Properties(Collections.singletonMap("proxy.location", root.toString()));
+        BlobStore store = new BlobStore(properties);
+        Path jar = root.resolve("org/example/demo/1.0/demo-1.0.jar");
+        Path copy = root.resolve("org/example/copy/1.0/copy-1.0.jar");
+        Path part = Files.createDirectories(jar.getParent()).resolve("demo-1.0.jar.part");
+        Files.write(part, new byte[]{1, 2, 3});
+        String sha1 = Utils.checksums(part, Checksum.SHA1.algorithm)[0];
+
+        assertFalse(store.contains(sha1));
+        store.store(part, jar, sha1);
+        assertTrue(store.contains(sha1));
+        assertFalse(store.contains("../../../" + sha1.substring(9)));
+        store.add(copy, sha1);
+
+        BlobStore restored = new BlobStore(properties);
+        assertEquals(restored.resolve(jar), restored.resolve(copy));
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(restored.resolve(copy)));
+        assertEquals(2, restored.paths().size());
+        assertFalse(Files.exists(jar));
+        assertEquals(jar.resolveSibling("demo-1.0.pom"), restored.resolve(jar.resolveSibling("demo-1.0.pom")));
+    }
+}
@@ -0,0 +1,50 @@
+package de.mheinzerling.mavenproxy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheIndexTest {
+
+    @Test
+    void walkSkipsStateAndPartialFiles(@TempDir Path root) throws IOException {
+        Path dir = Files.createDirectories(root.resolve("org/example/demo/1.0"));
+        Files.write(dir.resolve("demo-1.0.pom"), new byte[1]);
+        Files.write(dir.resolve("demo-1.0.jar.part"), new byte[1]);
+        Files.createDirectories(root.resolve(".proxy/metadata"));
+        Files.write(root.resolve(".proxy/negative.log"), new byte[1]);
+
+        CacheIndex index = new CacheIndex(root, root.resolve(".proxy/index"));
+        index.load(false);
+        Files.delete(dir.resolve("demo-1.0.pom")); //answered from the index from now on
+
+        assertFalse(index.missing(dir));
+        assertTrue(index.exists(dir.resolve("demo-1.0.pom")));
+        assertFalse(index.exists(dir.resolve("demo-1.0.jar.part")));
+        assertTrue(index.missing(root.resolve(".proxy")));
+    }
+
+    @Test
+    void snapshotAndLateFiles(@TempDir Path root) throws IOException {
+        CacheIndex index = new CacheIndex(root, root.resolve(".proxy/index"));
+        Path pom = root.resolve("org/example/demo/1.0/demo-1.0.pom");
+        index.addArtifact(pom);
+        index.writeSnapshot();
+
+        CacheIndex restored = new CacheIndex(root, root.resolve(".proxy/index"));
+        restored.load(true);
+        assertTrue(restored.exists(pom));
+        assertTrue(restored.exists(pom.resolveSibling("demo-1.0.pom.sha1")));
+
+        Path other = Files.createDirectories(root.resolve("org/example/other/2.0"));
+        assertTrue(restored.missing(other));
+        Files.write(other.resolve("other-2.0.pom"), new byte[1]); //added behind the proxy's back
+        assertFalse(restored.missing(other));
+    }
+}
@@ -0,0 +1,134 @@
+package de.mheinzerling.mavenproxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link Upstream} serving files from memory, like {@link UrlConnectionUpstream} reports the answers of a repo.
+ * Requests can be made to fail with 503 and bodies to break off, to simulate unreliable repos.
+ */
+final class FakeUpstream implements Upstream {
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final Map<String, String> types = new ConcurrentHashMap<>();
+    private final Map<String, Integer> failures = new ConcurrentHashMap<>();
+    private final Map<String, Integer> truncations = new ConcurrentHashMap<>();
+    /** URL and <code>Range</code> header of every request */
+    final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    /** false, to answer range requests with the whole file like a repo without range support */
+    volatile boolean ranges = true;
+
+    FakeUpstream file(String url, byte[] content) {
+        files.put(url, content);
+        return this;
+    }
+
+    /**
+     * Adds the file and its <code>.sha1</code>.
+     */
+    FakeUpstream artifact(String url, byte[] content) {
+        file(url, content);
+        return file(url + ".sha1", Utils.hex(Utils.digests("SHA-1")[0].digest(content)).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Adds a plain text listing of the directory.
+     */
+    FakeUpstream listing(String url, String... names) {
+        types.put(url, "text/plain");
+        return file(url, String.join("\n", names).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The next requests for the URL are answered with 503.
+     */
+    FakeUpstream fail(String url, int times) {
+        failures.put(url, times);
+        return this;
+    }
+
+    /**
+     * The body of the next reply for the URL breaks off after the given number of bytes.
+     */
+    FakeUpstream truncate(String url, int length) {
+        truncations.put(url, length);
+        return this;
+    }
+
+    @Override
+    public Reply get(String url, Map<String, String> headers) {
+        final String range = headers.get("Range");
+        requests.add(range == null ? url : url + " " + range);
+        if (failures.getOrDefault(url, 0) > 0) {
+            failures.merge(url, -1, Integer::sum);
+            return new FakeReply(503, new byte[0], -1);
+        }
+        final byte[] content = files.get(url);
+        if (content == null) return new FakeReply(404, new byte[0], -1);
+        FakeReply reply;
+        if (ranges && range != null && range.startsWith("bytes=") && range.endsWith("-")) {
+            final int offset = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            if (offset >= content.length) {
+                reply = new FakeReply(416, new byte[0], 0);
+                reply.headers.put("Content-Range", "bytes */" + content.length);
+                return reply;
+            }
+            reply = new FakeReply(206, Arrays.copyOfRange(content, offset, content.length), content.length - offset);
+            reply.headers.put("Content-Range", "bytes " + offset + "-" + (content.length - 1) + "/" + content.length);
+        } else {
+            reply = new FakeReply(200, content, content.length);
+        }
+        final Integer truncation = truncations.remove(url);
+        if (truncation != null) reply.body = Arrays.copyOf(reply.body, Math.min(truncation, reply.body.length));
+        if (types.containsKey(url)) reply.headers.put("Content-Type", types.get(url));
+        return reply;
+    }
+
+    private static final class FakeReply implements Reply {
+        private final int status;
+        private final long contentLength;
+        private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private byte[] body;
+
+        FakeReply(int status, byte[] body, long contentLength) {
+            this.status = status;
+            this.body = body;
+            this.contentLength = contentLength;
+        }
+
+        @Override
+        public int status() {
+            return status;
+        }
+
+        @Override
+        public long contentLength() {
+            return contentLength;
+        }
+
+        @Override
+        public String header(String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        public InputStream body() throws IOException {
+            if (status == 404) throw new FileNotFoundException();
+            if (status >= 400) throw new IOException("Server returned HTTP response code: " + status);
+            return new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package de.mheinzerling.mavenproxy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GzipTest {
+
+    @Test
+    void accepted() {
+        assertFalse(Gzip.accepted(request(null)));
+        assertTrue(Gzip.accepted(request("gzip, deflate, br")));
+        assertTrue(Gzip.accepted(request("x-gzip")));
+        assertTrue(Gzip.accepted(request("*")));
+        assertFalse(Gzip.accepted(request("identity")));
+        assertFalse(Gzip.accepted(request("gzip;q=0, *")));
+        assertFalse(Gzip.accepted(request("*;q=0")));
+        assertTrue(Gzip.accepted(request("*;q=0, GZIP; q=0.5")));
+    }
+
+    @Test
+    void onlyTextFilesAreCompressed(@TempDir Path root) throws IOException {
+        Gzip gzip = new Gzip(new Properties(Collections.singletonMap("proxy.location", root.toString())));
+        Path pom = Files.createDirectories(root.resolve("org/example/demo/1.0")).resolve("demo-1.0.pom");
+        byte[] content = String.join("", Collections.nCopies(20, "<dependency/>\n")).getBytes(StandardCharsets.UTF_8);
+        Files.write(pom, content);
+        Path jar = pom.resolveSibling("demo-1.0.jar");
+        Files.write(jar, content);
+
+        gzip.store(pom, pom);
+        gzip.store(jar, jar);
+        Path variant = gzip.variant(pom);
+        assertEquals(root.resolve(".proxy/gzip/org/example/demo/1.0/demo-1.0.pom.gz"), variant);
+        ByteArrayOutputStream unzipped = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(Files.newInputStream(variant))) {
+            Utils.transferTo(in, unzipped);
+        }
+        assertArrayEquals(content, unzipped.toByteArray());
+        assertNull(gzip.variant(jar));
+        assertNull(Gzip.compress(new byte[]{1, 2, 3}));
+    }
+
+    private static Request request(String acceptEncoding) {
+        return Request.parse("GET /a.pom HTTP/1.1" + (acceptEncoding == null ? "" : "\r\nAccept-Encoding: " + acceptEncoding));
+    }
+}
@@ -0,0 +1,71 @@
+package de.mheinzerling.mavenproxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ListingParserTest {
+
+    @Test
+    void html() {
+        String page = "<html>\n<body>\n<pre id=\"contents\">\n" +
+                "<a href=\"../\">../</a>\n" +
+                "<a href=\"demo-1.0-sources.jar\" title=\"demo-1.0-sources.jar\">demo-1.0-sources.jar</a>   2021-10-01 12:00   1234\n" +
+                "<a href=\"demo-1.0-very-long-classifier.jar\">demo-1.0-very-long-cla..></a>   2021-10-01 12:00   1234\n" +
+                "<a href=\"other.jar\">demo..&gt;</a>\n" +
+                "<a href=\"demo-1.0.pom\">demo-1.0.pom</a> <a href=\"second-link.pom\">second-link.pom</a>\n" +
+                "</pre>\n</body>\n</html>\n";
+        assertEquals(Arrays.asList("../", "demo-1.0-sources.jar", "demo-1.0-very-long-classifier.jar", "demo-1.0.pom"), parse(page, "html"));
+    }
+
+    @Test
+    void json() {
+        assertEquals(Arrays.asList("demo-1.0.jar", "demo-1.0.pom"), parse("[\"demo-1.0.jar\", \"demo-1.0.pom\"]", "json"));
+        assertEquals(Arrays.asList("demo-1.0.jar", "sub/", "demo-1.0.pom"),
+                parse("{\"type\":\"DIRECTORY\",\"name\":\"1.0\",\"files\":[{\"type\":\"FILE\",\"name\":\"demo-1.0.jar\",\"size\":12}," +
+                        "{\"uri\":\"/sub\",\"folder\":true},{\"uri\":\"/demo-1.0.pom\",\"folder\":false}]}", "json"));
+        assertEquals(Arrays.asList("demo-1.0.jar", "1.0/"), parse("[{\"name\":\"demo-1.0.jar\"},{\"name\":\"1.0\",\"directory\":true}]", "json"));
+    }
+
+    @Test
+    void artifactoryStorageApi() {
+        String page = "{\n" +
+                "  \"repo\" : \"libs-release\",\n" +
+                "  \"path\" : \"/org/acme/demo/1.0\",\n" +
+                "  \"created\" : \"2021-10-01T12:00:00.000Z\",\n" +
+                "  \"children\" : [ {\n" +
+                "    \"uri\" : \"/demo-1.0.jar\",\n" +
+                "    \"folder\" : false\n" +
+                "  }, {\n" +
+                "    \"uri\" : \"/demo-1.0.pom\",\n" +
+                "    \"folder\" : false\n" +
+                "  } ],\n" +
+                "  \"uri\" : \"https://repo.acme.org/artifactory/api/storage/libs-release/org/acme/demo/1.0\"\n" +
+                "}";
+        assertEquals(Arrays.asList("demo-1.0.jar", "demo-1.0.pom"), parse(page, "json"));
+    }
+
+    @Test
+    void excludes() {
+        Excludes excludes = new Excludes(Arrays.asList(".sha1", ".asc", "-site.xml"), Arrays.asList("-javadoc.", "-tests."));
+        assertEquals(Excludes.Match.NONE, excludes.match("demo-1.0.jar"));
+        assertEquals(Excludes.Match.EXTENSION, excludes.match("demo-1.0.jar.sha1"));
+        assertEquals(Excludes.Match.EXTENSION, excludes.match("demo-1.0-javadoc.jar.asc"));
+        assertEquals(Excludes.Match.CLASSIFIER, excludes.match("demo-1.0-javadoc.jar"));
+        assertEquals(Excludes.Match.CLASSIFIER, excludes.match("demo-1.0-tests.jar"));
+        assertEquals(Excludes.Match.NONE, excludes.match("demo-1.0.sha1.jar"));
+        assertEquals(Excludes.Match.NONE, excludes.match("demo-1.0-site.xml.gz"));
+        assertEquals(Excludes.Match.EXTENSION, excludes.match("demo-1.0-s-site.xml"));
+    }
+
+    private static List<String> parse(String page, String format) {
+        List<String> entries = new ArrayList<>();
+        if (format.equals("html")) ListingParser.html(page, entries::add);
+        else ListingParser.json(page, entries::add);
+        return entries;
+    }
+}
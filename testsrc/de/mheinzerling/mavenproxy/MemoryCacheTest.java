@@ -0,0 +1,40 @@
+package de.mheinzerling.mavenproxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MemoryCacheTest {
+
+    @Test
+    void scanDoesNotEvictPopularEntries() {
+        Map<String, String> map = new HashMap<>();
+        map.put("proxy.memory.size", "1000");
+        map.put("proxy.memory.entry", "100");
+        MemoryCache cache = new MemoryCache(new Properties(map));
+
+        cache.put("/popular.pom", Response.ok(50), new byte[50]);
+        assertNotNull(cache.get("/popular.pom")); //promoted to the protected segment
+        for (int i = 0; i < 100; i++) {
+            cache.put("/scan-" + i + ".pom", Response.ok(50), new byte[50]);
+        }
+
+        assertNotNull(cache.get("/popular.pom"));
+        assertNull(cache.get("/scan-0.pom"));
+        assertNotNull(cache.get("/scan-99.pom"));
+    }
+
+    @Test
+    void tooLarge() {
+        Map<String, String> map = new HashMap<>();
+        map.put("proxy.memory.entry", "100");
+        MemoryCache cache = new MemoryCache(new Properties(map));
+
+        cache.put("/large.jar", Response.ok(101), new byte[101]);
+        assertNull(cache.get("/large.jar"));
+    }
+}
@@ -0,0 +1,129 @@
+package de.mheinzerling.mavenproxy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrefetcherTest {
+
+    @Test
+    void pom(@TempDir Path dir) throws IOException {
+        Path pom = dir.resolve("demo-1.0.pom");
+        Files.write(pom, ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n" +
+                "  <parent><groupId>org.example</groupId><artifactId>parent</artifactId><version>3</version></parent>\n" +
+                "  <artifactId>demo</artifactId><version>1.0</version>\n" +
+                "  <properties><other.version>2.0</other.version></properties>\n" +
+                "  <dependencyManagement><dependencies>\n" +
+                "    <dependency><groupId>org.example</groupId><artifactId>bom</artifactId><version>${project.version}</version><type>pom</type><scope>import</scope></dependency>\n" +
+                "    <dependency><groupId>org.example</groupId><artifactId>managed</artifactId><version>4.1</version></dependency>\n" +
+                "  </dependencies></dependencyManagement>\n" +
+                "  <dependencies>\n" +
+                "    <dependency><groupId>${project.groupId}</groupId><artifactId>other</artifactId><version>${other.version}</version></dependency>\n" +
+                "    <dependency><groupId>org.example</groupId><artifactId>managed</artifactId><scope>runtime</scope></dependency>\n" +
+                "    <dependency><groupId>org.example</groupId><artifactId>test</artifactId><version>1</version><scope>test</scope></dependency>\n" +
+                "    <dependency><groupId>org.example</groupId><artifactId>optional</artifactId><version>1</version><optional>true</optional></dependency>\n" +
+                "    <dependency><groupId>org.example</groupId><artifactId>range</artifactId><version>[1.0,2.0)</version></dependency>\n" +
+                "    <dependency><groupId>org.example</groupId><artifactId>unknown</artifactId><version>${unknown}</version></dependency>\n" +
+                "  </dependencies>\n" +
+                "</project>\n").getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(Arrays.asList("/org/example/parent/3/", "/org/example/bom/1.0/", "/org/example/other/2.0/", "/org/example/managed/4.1/"),
+                new ArrayList<>(Prefetcher.pom(pom)));
+    }
+
+    @Test
+    void module(@TempDir Path dir) throws IOException {
+        Path module = dir.resolve("demo-1.0.module");
+        Files.write(module, ("{\"formatVersion\": \"1.1\", \"variants\": [" +
+                "{\"name\": \"apiElements\", \"dependencies\": [{\"group\": \"org.example\", \"module\": \"other\", \"version\": {\"requires\": \"2.0\"}}]}," +
+                "{\"name\": \"runtimeElements\", \"dependencies\": [{\"group\": \"org.example\", \"module\": \"strict\", \"version\": {\"strictly\": \"1.1\", \"requires\": \"1.0\"}}]}," +
+                "{\"name\": \"jvm\", \"available-at\": {\"url\": \"../../demo-jvm/1.0/demo-jvm-1.0.module\", \"group\": \"org.example\", \"module\": \"demo-jvm\", \"version\": \"1.0\"}}" +
+                "]}").getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(Arrays.asList("/org/example/other/2.0/", "/org/example/strict/1.1/", "/org/example/demo-jvm/1.0/"),
+                new ArrayList<>(Prefetcher.module(module)));
+    }
+
+    @Test
+    void droppedDirectoryIsQueuedAgain(@TempDir Path root) throws IOException, InterruptedException {
+        Path pom = root.resolve("org/example/demo/1.0/demo-1.0.pom");
+        Files.createDirectories(pom.getParent());
+        StringBuilder dependencies = new StringBuilder();
+        for (int i = 0; i < 1002; i++) {
+            dependencies.append("<dependency><groupId>org.example</groupId><artifactId>a").append(i).append("</artifactId><version>1</version></dependency>");
+        }
+        Files.write(pom, ("<project><groupId>org.example</groupId><artifactId>demo</artifactId><version>1.0</version>" +
+                "<dependencies>" + dependencies + "</dependencies></project>").getBytes(StandardCharsets.UTF_8));
+        Map<String, String> props = new HashMap<>();
+        props.put("proxy.location", root.toString());
+        props.put("proxy.prefetch.threads", "1");
+        Set<String> loaded = ConcurrentHashMap.newKeySet();
+        CountDownLatch all = new CountDownLatch(1002);
+        Prefetcher prefetcher = new Prefetcher(new Properties(props), dir -> {
+            if (loaded.add(dir)) all.countDown();
+        }, Function.identity());
+        try {
+            prefetcher.stored(pom); //the single thread queues the dependencies, the last two don't fit
+            while (loaded.size() < 1000) Thread.sleep(10);
+            prefetcher.stored(pom);
+            assertTrue(all.await(10, TimeUnit.SECONDS), loaded.size() + " directories loaded");
+        } finally {
+            prefetcher.close();
+        }
+    }
+
+    @Test
+    void depthIsLimited(@TempDir Path root) throws IOException, InterruptedException {
+        Map<String, String> props = new HashMap<>();
+        props.put("proxy.location", root.toString());
+        props.put("proxy.prefetch.depth", "2");
+        Set<String> loaded = ConcurrentHashMap.newKeySet();
+        Prefetcher[] prefetcher = new Prefetcher[1];
+        prefetcher[0] = new Prefetcher(new Properties(props), dir -> {
+            loaded.add(dir);
+            try {
+                prefetcher[0].stored(chain(root, Integer.parseInt(dir.split("/")[2].substring(1))));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, Function.identity());
+        try {
+            prefetcher[0].stored(chain(root, 1));
+            for (int i = 0; i < 100 && loaded.size() < 2; i++) Thread.sleep(10);
+            Thread.sleep(200);
+            assertEquals(new HashSet<>(Arrays.asList("/org/a2/1/", "/org/a3/1/")), loaded);
+        } finally {
+            prefetcher[0].close();
+        }
+    }
+
+    /**
+     * @return the pom of <code>org:a&lt;n&gt;:1</code>, that depends on <code>org:a&lt;n+1&gt;:1</code>
+     */
+    private static Path chain(Path root, int n) throws IOException {
+        Path pom = Files.createDirectories(root.resolve("org/a" + n + "/1")).resolve("a" + n + "-1.pom");
+        Files.write(pom, ("<project><groupId>org</groupId><artifactId>a" + n + "</artifactId><version>1</version><dependencies>" +
+                "<dependency><groupId>org</groupId><artifactId>a" + (n + 1) + "</artifactId><version>1</version></dependency>" +
+                "</dependencies></project>").getBytes(StandardCharsets.UTF_8));
+        return pom;
+    }
+}
@@ -0,0 +1,52 @@
+package de.mheinzerling.mavenproxy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProbeTest {
+
+    @Test
+    void hedgeIsCountedFromTheStart(@TempDir Path root) throws IOException {
+        Map<String, String> map = new HashMap<>();
+        map.put("proxy.location", root.toString());
+        map.put("remote.repos", "a,b,c");
+        map.put("remote.probe", "hedged");
+        map.put("remote.probe.hedge", "300");
+        map.put("remote.affinity", "false");
+        Properties properties = new Properties(map);
+        Probe probe = new Probe(properties, new Scheduler(8, 4), new Affinity(properties));
+        long started = System.currentTimeMillis();
+        long[] asked = new long[1];
+
+        assertEquals("a", probe.first("/org/example/demo/1.0/", repo -> {
+            switch (repo) {
+                case "a":
+                    sleep(1500);
+                    return "a";
+                case "b":
+                    sleep(250);
+                    return null; //a miss doesn't delay the next hedge
+                default:
+                    asked[0] = System.currentTimeMillis() - started;
+                    return "c";
+            }
+        }));
+        assertTrue(asked[0] >= 550 && asked[0] < 750, "c asked after " + asked[0] + " ms");
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -2,16 +2,29 @@ package de.mheinzerling.mavenproxy;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.function.Function;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class ProxyTest {
+    private static final String REPO = "http://repo";
+    private static final String DEMO = "/org/example/demo/1.0/";
+    private static final byte[] JAR = new byte[100];
+    private static final String NOT_FOUND = "HTTP/1.1 404 Not Found\r\ncontent-length: 0\r\n\r\n";
+
     private final Proxy online = new Proxy(new Properties(Collections.singletonMap("proxy.offline", "false")));
     private final Proxy offline = new Proxy(new Properties(Collections.singletonMap("proxy.offline", "true")));
 
@@ -26,6 +39,9 @@ class ProxyTest {
         assertFull("/org/jetbrains/kotlin/kotlin-reflect/1.5.31/kotlin-reflect-1.5.31.pom",
                 "HTTP/1.1 200 OK\r\n" +
                         "content-length: 1375\r\n" +
+                        "vary: accept-encoding\r\n" +
+                        "etag: \"de2931195ce691e75ddbf4ec2ddff41a0afcbd8a\"\r\n" +
+                        "last-modified: *\r\n" +
                         "\r\n",
                 "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<project/>\n",
                 s -> s.replaceAll("(?s)<project.+?</project>", "<project/>"),
@@ -37,6 +53,9 @@ class ProxyTest {
         assertFull("/org/openjfx/javafx-plugin/0.0.10/javafx-plugin-0.0.10.pom",
                 "HTTP/1.1 200 OK\r\n" +
                         "content-length: 810\r\n" +
+                        "vary: accept-encoding\r\n" +
+                        "etag: \"579823028373b16c50110cf91ae9f7ea2a265f54\"\r\n" +
+                        "last-modified: *\r\n" +
                         "\r\n",
                 "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<project/>\n",
                 s -> s.replaceAll("(?s)<project.+?</project>", "<project/>"),
@@ -48,20 +67,176 @@ class ProxyTest {
         assertFull("/org/jetbrains/kotlin/kotlin-build-common/1.5.31/kotlin-build-common-1.5.31.jar",
                 "HTTP/1.1 200 OK\r\n" +
                         "content-length: 436065\r\n" +
+                        "etag: \"0831c3253d3b4fc174feddf001c20aea37eeacc3\"\r\n" +
+                        "last-modified: *\r\n" +
                         "\r\n",
                 "PK",
-                s -> s.substring(0, 45),
+                s -> s.substring(0, s.indexOf("\r\n\r\n") + 6),
                 "0831c3253d3b4fc174feddf001c20aea37eeacc3");
     }
 
     @Test
     void some404() throws IOException {
         assertFull("/org/javamodularity/moduleplugin/1.8.2/moduleplugin-1.8.2.module",
-                "HTTP/1.1 404 Not Found\r\n\r\n",
+                "HTTP/1.1 404 Not Found\r\n" +
+                        "content-length: 0\r\n" +
+                        "\r\n",
                 "",
                 Function.identity(), null);
     }
 
+    @Test
+    void badRequest() throws IOException {
+        assertEquals("HTTP/1.1 400 Bad Request\r\ncontent-length: 0\r\n\r\n", offline.handle("GET x HTTP/1.1", new ByteArrayOutputStream()).responseString);
+        assertEquals("HTTP/1.1 400 Bad Request\r\ncontent-length: 0\r\n\r\n", online.handle("GET", new ByteArrayOutputStream()).responseString);
+        assertTrue(online.isCached(new Request("GET")));
+    }
+
+    @Test
+    void lazyFailureIsNoMiss(@TempDir Path root) throws IOException {
+        FakeUpstream upstream = new FakeUpstream().artifact(REPO + DEMO + "demo-1.0.jar", JAR).fail(REPO + DEMO + "demo-1.0.jar", 1);
+        Proxy proxy = new Proxy(properties(root, "proxy.fill", "lazy"), upstream);
+
+        assertThrows(IOException.class, () -> proxy.handle("GET " + DEMO + "demo-1.0.jar HTTP/1.1", new ByteArrayOutputStream()));
+        assertEquals("HTTP/1.1 200 OK\r\n" +
+                "content-length: 100\r\n" +
+                "etag: \"" + Utils.hex(Utils.digests("SHA-1")[0].digest(JAR)) + "\"\r\n" +
+                "last-modified: *\r\n" +
+                "\r\n", normalise(proxy.handle("GET " + DEMO + "demo-1.0.jar HTTP/1.1", new ByteArrayOutputStream()).responseString));
+
+        assertEquals(NOT_FOUND, proxy.handle("GET " + DEMO + "demo-1.0.pom HTTP/1.1", new ByteArrayOutputStream()).responseString);
+        int requests = upstream.requests.size();
+        assertEquals(NOT_FOUND, proxy.handle("GET " + DEMO + "demo-1.0.pom HTTP/1.1", new ByteArrayOutputStream()).responseString);
+        assertEquals(requests, upstream.requests.size()); //confirmed miss
+    }
+
+    @Test
+    void failedFillIsRetried(@TempDir Path root) throws IOException {
+        FakeUpstream upstream = new FakeUpstream().listing(REPO + DEMO, "demo-1.0.jar", "demo-1.0.pom")
+                .artifact(REPO + DEMO + "demo-1.0.jar", JAR).artifact(REPO + DEMO + "demo-1.0.pom", new byte[10])
+                .fail(REPO + DEMO + "demo-1.0.jar", 2); //the fill of the directory and the retry of the request
+
+        assertThrows(IOException.class, () -> new Proxy(properties(root), upstream).handle("GET " + DEMO + "demo-1.0.jar HTTP/1.1", new ByteArrayOutputStream()));
+        Proxy restarted = new Proxy(properties(root), upstream);
+        assertTrue(restarted.handle("GET " + DEMO + "demo-1.0.jar HTTP/1.1", new ByteArrayOutputStream()).responseString.startsWith("HTTP/1.1 200 OK\r\ncontent-length: 100\r\n"));
+        assertEquals(Arrays.asList("+ org/example/demo/1.0/demo-1.0.jar", "- org/example/demo/1.0/demo-1.0.jar"), //compacted on restart
+                Files.readAllLines(root.resolve(".proxy/failed.log")));
+    }
+
+    @Test
+    void onlyConfirmedMissesAreCached(@TempDir Path root) throws IOException {
+        FakeUpstream upstream = new FakeUpstream().listing(REPO + DEMO, "demo-1.0.jar", "demo-1.0.pom")
+                .artifact(REPO + DEMO + "demo-1.0.jar", JAR).artifact(REPO + DEMO + "demo-1.0.pom", new byte[10])
+                .fail(REPO + DEMO + "demo-1.0.jar", 2);
+        assertThrows(IOException.class, () -> new Proxy(properties(root), upstream).handle("GET " + DEMO + "demo-1.0.jar HTTP/1.1", new ByteArrayOutputStream()));
+
+        Proxy offline = new Proxy(properties(root, "proxy.offline", "true"), upstream);
+        assertEquals(NOT_FOUND, offline.handle("GET " + DEMO + "demo-1.0.jar HTTP/1.1", new ByteArrayOutputStream()).responseString);
+
+        Proxy online = new Proxy(properties(root), upstream);
+        assertTrue(online.handle("GET " + DEMO + "demo-1.0.jar HTTP/1.1", new ByteArrayOutputStream()).responseString.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertEquals(NOT_FOUND, online.handle("GET " + DEMO + "demo-1.0-sources.jar HTTP/1.1", new ByteArrayOutputStream()).responseString);
+        int requests = upstream.requests.size();
+        assertEquals(NOT_FOUND, online.handle("GET " + DEMO + "demo-1.0-sources.jar HTTP/1.1", new ByteArrayOutputStream()).responseString);
+        assertEquals(requests, upstream.requests.size()); //the listing lacks the file
+    }
+
+    @Test
+    void notModified(@TempDir Path root) throws IOException {
+        FakeUpstream upstream = new FakeUpstream().listing(REPO + DEMO, "demo-1.0.jar").artifact(REPO + DEMO + "demo-1.0.jar", JAR);
+        Proxy proxy = new Proxy(properties(root), upstream);
+        String etag = "\"" + Utils.hex(Utils.digests("SHA-1")[0].digest(JAR)) + "\"";
+        String lastModified = status(proxy, "").split("last-modified: ")[1].split("\r\n")[0];
+        assertTrue(proxy.handle("GET " + DEMO + "demo-1.0.jar HTTP/1.1", new ByteArrayOutputStream()).fromCache); //kept in memory
+
+        assertEquals("HTTP/1.1 304 Not Modified", status(proxy, "If-None-Match: " + etag).split("\r\n")[0]);
+        assertEquals("HTTP/1.1 304 Not Modified", status(proxy, "If-None-Match: \"other\", " + etag).split("\r\n")[0]);
+        assertEquals("HTTP/1.1 304 Not Modified", status(proxy, "If-None-Match: *").split("\r\n")[0]);
+        assertEquals("HTTP/1.1 304 Not Modified", status(proxy, "If-None-Match: W/" + etag).split("\r\n")[0]);
+        assertEquals("HTTP/1.1 200 OK", status(proxy, "If-None-Match: \"other\"").split("\r\n")[0]);
+        assertEquals("HTTP/1.1 304 Not Modified", status(proxy, "If-Modified-Since: " + lastModified).split("\r\n")[0]);
+        assertEquals("HTTP/1.1 200 OK", status(proxy, "If-Modified-Since: Thu, 01 Jan 1970 00:00:00 GMT").split("\r\n")[0]);
+        assertEquals("HTTP/1.1 200 OK", status(proxy, "If-None-Match: \"other\"\nIf-Modified-Since: " + lastModified).split("\r\n")[0]); //If-None-Match takes precedence
+        assertEquals("HTTP/1.1 304 Not Modified", status(proxy, "If-None-Match: " + etag + "\nIf-Modified-Since: Thu, 01 Jan 1970 00:00:00 GMT").split("\r\n")[0]);
+    }
+
+    @Test
+    void failedMetadataIsNoMiss(@TempDir Path root) throws IOException {
+        String metadata = "/org/example/demo/maven-metadata.xml";
+        FakeUpstream upstream = new FakeUpstream().file(REPO + metadata, "<metadata/>".getBytes(StandardCharsets.UTF_8)).fail(REPO + metadata, 1);
+        Proxy proxy = new Proxy(properties(root), upstream);
+
+        assertThrows(IOException.class, () -> proxy.handle("GET " + metadata + " HTTP/1.1", new ByteArrayOutputStream()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals("[maven-metadata.xml]", proxy.handle("GET " + metadata + " HTTP/1.1", out).responseString);
+        assertTrue(out.toString("UTF-8").endsWith("<metadata/>"));
+    }
+
+    @Test
+    void missingMetadataIsCached(@TempDir Path root) throws IOException {
+        String metadata = "/org/example/demo/maven-metadata.xml";
+        FakeUpstream upstream = new FakeUpstream();
+        Proxy proxy = new Proxy(properties(root), upstream);
+
+        assertEquals(NOT_FOUND, proxy.handle("GET " + metadata + " HTTP/1.1", new ByteArrayOutputStream()).responseString);
+        int requests = upstream.requests.size();
+        assertEquals(NOT_FOUND, proxy.handle("GET " + metadata + " HTTP/1.1", new ByteArrayOutputStream()).responseString);
+        assertEquals(requests, upstream.requests.size());
+    }
+
+    @Test
+    void eagerPrefetch(@TempDir Path root) throws IOException, InterruptedException {
+        byte[] pom = ("<project><groupId>org.example</groupId><artifactId>demo</artifactId><version>1.0</version><dependencies>" +
+                "<dependency><groupId>org.example</groupId><artifactId>dep</artifactId><version>2.0</version></dependency>" +
+                "</dependencies></project>").getBytes(StandardCharsets.UTF_8);
+        FakeUpstream upstream = new FakeUpstream().listing(REPO + DEMO, "demo-1.0.pom").artifact(REPO + DEMO + "demo-1.0.pom", pom)
+                .listing(REPO + "/org/example/dep/2.0/", "dep-2.0.jar").artifact(REPO + "/org/example/dep/2.0/dep-2.0.jar", JAR)
+                .listing(REPO + "/org/example/other/3.0/", "other-3.0.jar").artifact(REPO + "/org/example/other/3.0/other-3.0.jar", JAR);
+        Proxy proxy = new Proxy(properties(root, "proxy.prefetch", "true"), upstream);
+
+        assertTrue(proxy.handle("GET " + DEMO + "demo-1.0.pom HTTP/1.1", new ByteArrayOutputStream()).responseString.startsWith("HTTP/1.1 200 OK\r\n"));
+        proxy.prefetch("/org/example/other/3.0/"); //without a requested file
+        Request dep = Request.parse("GET /org/example/dep/2.0/dep-2.0.jar HTTP/1.1");
+        Request other = Request.parse("GET /org/example/other/3.0/other-3.0.jar HTTP/1.1");
+        for (int i = 0; i < 100 && !(proxy.isCached(dep) && proxy.isCached(other)); i++) Thread.sleep(100); //fills complete
+        assertTrue(Files.exists(root.resolve("org/example/dep/2.0/dep-2.0.jar")));
+        assertTrue(Files.exists(root.resolve("org/example/other/3.0/other-3.0.jar")));
+        proxy.close();
+    }
+
+    @Test
+    void streamedMismatchIsIncomplete(@TempDir Path root) throws IOException {
+        FakeUpstream upstream = new FakeUpstream().listing(REPO + DEMO, "demo-1.0.jar", "demo-1.0.pom")
+                .artifact(REPO + DEMO + "demo-1.0.pom", JAR)
+                .file(REPO + DEMO + "demo-1.0.jar", JAR).file(REPO + DEMO + "demo-1.0.jar.sha1", "0000000000000000000000000000000000000000".getBytes(StandardCharsets.UTF_8));
+        for (String fill : new String[]{"eager", "lazy"}) {
+            Proxy proxy = new Proxy(properties(root.resolve(fill), "proxy.stream", "true", "proxy.fill", fill), upstream);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertThrows(Throwable.class, () -> proxy.handle(Request.parse("GET " + DEMO + "demo-1.0.jar HTTP/1.1"), true, out));
+            String response = out.toString("ISO-8859-1");
+            assertTrue(response.startsWith("HTTP/1.1 200 OK\r\ncontent-length: 100\r\n"), fill);
+            assertTrue(response.length() - response.indexOf("\r\n\r\n") - 4 < 100, fill); //the client sees a truncated body
+
+            out.reset();
+            String head = proxy.handle(Request.parse("GET " + DEMO + "demo-1.0.pom HTTP/1.1"), true, out).responseString; //streamed or cached
+            assertTrue(head.startsWith("HTTP/1.1 200 OK\r\ncontent-length: 100\r\n"), fill);
+            assertEquals(head.length() + 100, out.size(), fill);
+        }
+    }
+
+    private static String status(Proxy proxy, String headers) throws IOException {
+        return proxy.handle(Request.parse("GET " + DEMO + "demo-1.0.jar HTTP/1.1\n" + headers), true, new ByteArrayOutputStream()).responseString;
+    }
+
+    private static Properties properties(Path root, String... entries) {
+        Map<String, String> map = new HashMap<>();
+        map.put("proxy.location", root.toString());
+        map.put("remote.repos", REPO);
+        for (int i = 0; i < entries.length; i += 2) map.put(entries[i], entries[i + 1]);
+        return new Properties(map);
+    }
+
     private void assertFull(String request, String expected, String expectedOut, Function<String, String> filterOut, String sha1) throws IOException {
         final String head = "HEAD " + request + "  HTTP/1.1";
         final String get = "GET " + request + "  HTTP/1.1";
@@ -77,32 +252,41 @@ class ProxyTest {
     private void assertSha(Proxy proxy, String get, String sha) throws IOException {
         String expected = "HTTP/1.1 200 OK\r\n" +
                 "content-length: 40\r\n" +
+                "last-modified: *\r\n" +
                 "\r\n";
         final ByteArrayOutputStream outGet = new ByteArrayOutputStream();
         final String responseGet = proxy.handle(get, outGet).responseString;
-        assertEquals(expected, responseGet);
-        assertEquals(expected + sha, outGet.toString());
+        assertEquals(expected, normalise(responseGet));
+        assertEquals(expected + sha, normalise(outGet.toString()));
     }
 
 
     private void assertGet(Proxy proxy, String get, String expected, String expectedOut, Function<String, String> filterOut) throws IOException {
         final ByteArrayOutputStream outGet = new ByteArrayOutputStream();
         final String responseGet = proxy.handle(get, outGet).responseString;
-        assertEquals(expected, responseGet);
-        assertEquals(expected + expectedOut, filterOut.apply(outGet.toString()));
+        assertEquals(expected, normalise(responseGet));
+        assertEquals(expected + expectedOut, filterOut.apply(normalise(outGet.toString())));
     }
 
     private void assertHead(Proxy proxy, String head, String expected) throws IOException {
         final ByteArrayOutputStream out = new ByteArrayOutputStream();
         final String response = proxy.handle(head, out).responseString;
-        assertEquals(expected, response);
-        assertEquals(expected, out.toString());
+        assertEquals(expected, normalise(response));
+        assertEquals(expected, normalise(out.toString()));
+    }
+
+    /**
+     * The modification date depends on the time the file was cached.
+     */
+    private static String normalise(String response) {
+        return response.replaceFirst("last-modified: [^\r]*\r\n", "last-modified: *\r\n");
     }
 
     @Test
     public void sha512() throws IOException {
         String expected = "HTTP/1.1 200 OK\r\n" +
                 "content-length: 128\r\n" +
+                "last-modified: *\r\n" +
                 "\r\n";
         String request = "/org/jetbrains/kotlinx/kotlinx-coroutines-core-jvm/1.5.0/kotlinx-coroutines-core-jvm-1.5.0.module.sha512";
         assertGet(online, "GET " + request + " HTTP/1.1", expected, "b0ca6a56172ec06b7fab93c441b9f2ba4950253a022ea7895a63e6276d73430f7c55f5390058ba5150dfe41cb5a5177b38b1b6fb4825528ed5f32ab644074e94", Function.identity());
@@ -112,6 +296,7 @@ class ProxyTest {
     public void sha256() throws IOException {
         String expected = "HTTP/1.1 200 OK\r\n" +
                 "content-length: 64\r\n" +
+                "last-modified: *\r\n" +
                 "\r\n";
         String request = "/org/jetbrains/kotlinx/kotlinx-coroutines-core-jvm/1.5.0/kotlinx-coroutines-core-jvm-1.5.0.module.sha256";
         assertGet(online, "GET " + request + " HTTP/1.1", expected, "c885dd0281076c5843826de317e3cbcdc3d8859dbeef53ae1cfacd1b9c60f96e", Function.identity());
@@ -121,6 +306,7 @@ class ProxyTest {
     public void md5() throws IOException {
         String expected = "HTTP/1.1 200 OK\r\n" +
                 "content-length: 32\r\n" +
+                "last-modified: *\r\n" +
                 "\r\n";
         String request = "/org/jetbrains/kotlinx/kotlinx-coroutines-core-jvm/1.5.0/kotlinx-coroutines-core-jvm-1.5.0.module.md5";
         assertGet(online, "GET " + request + " HTTP/1.1", expected, "6649c24dd40128bebc2812683ffeae17", Function.identity());
@@ -0,0 +1,71 @@
+package de.mheinzerling.mavenproxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestTest {
+
+    @Test
+    void pipelined() throws IOException {
+        InputStream in = new ByteArrayInputStream(("GET /a.pom HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n" +
+                "HEAD /b.jar HTTP/1.1\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        Request first = Request.read(in);
+        assertEquals("GET", first.method);
+        assertEquals("/a.pom", first.uri);
+        assertEquals("localhost", first.header("host"));
+        assertTrue(first.keepAlive());
+
+        Request second = Request.read(in);
+        assertEquals("HEAD", second.method);
+        assertEquals("/b.jar", second.uri);
+        assertFalse(second.keepAlive());
+
+        assertNull(Request.read(in));
+    }
+
+    @Test
+    void keepAliveDefaults() {
+        assertTrue(new Request("GET /a.pom  HTTP/1.1").keepAlive());
+        assertFalse(new Request("GET /a.pom HTTP/1.0").keepAlive());
+        assertTrue(Request.parse("GET /a.pom HTTP/1.0\nconnection: Keep-Alive").keepAlive());
+    }
+
+    @Test
+    void range() {
+        assertArrayEquals(new long[]{0, 9}, range("bytes=0-9", 100));
+        assertArrayEquals(new long[]{90, 99}, range("bytes=90-", 100));
+        assertArrayEquals(new long[]{90, 99}, range("bytes=-10", 100));
+        assertArrayEquals(new long[]{50, 99}, range("bytes=50-200", 100));
+        assertArrayEquals(new long[]{0, 99}, range("bytes=-200", 100));
+        assertSame(Request.UNSATISFIABLE, range("bytes=100-", 100));
+        assertSame(Request.UNSATISFIABLE, range("bytes=-0", 100));
+        assertNull(range("bytes=0-9,20-29", 100));
+        assertNull(range("bytes=9-0", 100));
+        assertNull(range("items=0-9", 100));
+        assertNull(Request.parse("GET /a.jar HTTP/1.1").range(100));
+    }
+
+    @Test
+    void date() {
+        Request request = Request.parse("GET /a.jar HTTP/1.1\nIf-Modified-Since: Sun, 06 Nov 1994 08:49:37 GMT\nIf-Range: \"abc\"");
+        assertEquals(784111777L, request.date("if-modified-since"));
+        assertEquals(Long.MIN_VALUE, request.date("if-range"));
+        assertEquals(Long.MIN_VALUE, request.date("date"));
+    }
+
+    private static long[] range(String range, long size) {
+        return Request.parse("GET /a.jar HTTP/1.1\nRange: " + range).range(size);
+    }
+}
@@ -0,0 +1,22 @@
+package de.mheinzerling.mavenproxy;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ResponseTest {
+
+    @Test
+    void lastModifiedIsFixdate() {
+        assertEquals("HTTP/1.1 304 Not Modified\r\netag: \"a\"\r\nlast-modified: Thu, 01 Jan 1970 00:00:00 GMT\r\n\r\n",
+                Response.notModified().validators("\"a\"", 0).toString());
+        assertEquals("HTTP/1.1 304 Not Modified\r\nlast-modified: Tue, 09 Mar 2021 16:05:03 GMT\r\n\r\n",
+                Response.notModified().validators(null, 1615305903).toString());
+    }
+
+    @Test
+    void lastModifiedIsParsed() {
+        String lastModified = Response.notModified().validators(null, 1615305903).toString().split("last-modified: ")[1].trim();
+        assertEquals(1615305903, Request.parse("GET /a.pom HTTP/1.1\nIf-Modified-Since: " + lastModified).date("if-modified-since"));
+    }
+}
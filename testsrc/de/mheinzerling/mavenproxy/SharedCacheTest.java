@@ -0,0 +1,60 @@
+package de.mheinzerling.mavenproxy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SharedCacheTest {
+
+    @Test
+    void publishedFilesAreMaterialisedInOtherProjects(@TempDir Path root) throws IOException {
+        SharedCache a = new SharedCache(properties(root, "a"));
+        Path pom = Files.createDirectories(root.resolve("a/org/example/demo/1.0")).resolve("demo-1.0.pom");
+        Files.write(pom, new byte[]{1, 2, 3});
+        Checksum.store(pom);
+        a.publish(pom, pom);
+
+        SharedCache b = new SharedCache(properties(root, "b"));
+        Path linked = root.resolve("b/org/example/demo/1.0/demo-1.0.pom");
+        assertTrue(b.materialise(linked));
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(linked));
+        assertTrue(Files.exists(linked.resolveSibling("demo-1.0.pom.sha1")));
+        assertFalse(b.materialise(linked.resolveSibling("demo-1.0.jar")));
+    }
+
+    @Test
+    void onlyCompleteDirectoriesAreMaterialised(@TempDir Path root) throws IOException {
+        SharedCache a = new SharedCache(properties(root, "a"));
+        Path dir = Files.createDirectories(root.resolve("a/org/example/demo/1.0"));
+        Files.write(dir.resolve("demo-1.0.pom"), new byte[1]);
+        Files.write(dir.resolve("demo-1.0.jar"), new byte[1]);
+        a.publish(dir.resolve("demo-1.0.pom"), dir.resolve("demo-1.0.pom"));
+
+        SharedCache b = new SharedCache(properties(root, "b"));
+        Path target = root.resolve("b/org/example/demo/1.0");
+        assertEquals(Collections.emptyList(), b.materialiseDirectory(target));
+
+        a.publish(dir.resolve("demo-1.0.jar"), dir.resolve("demo-1.0.jar"));
+        a.complete(dir);
+        assertEquals(2, b.materialiseDirectory(target).size());
+        assertFalse(Files.exists(target.resolve(".complete")));
+    }
+
+    private static Properties properties(Path root, String project) {
+        Map<String, String> map = new HashMap<>();
+        map.put("proxy.location", root.resolve(project).toString());
+        map.put("proxy.shared", root.resolve("shared").toString());
+        return new Properties(map);
+    }
+}
@@ -0,0 +1,122 @@
+package de.mheinzerling.mavenproxy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UtilsTest {
+    private static final String[] EXPECTED = {
+            "2fd4e1c67a2d28fced849ee1bb76e7391b93eb12",
+            "d7a8fbb307d7809469ca9abcb0082e4f8d5651e46d3cdb762d02d0bf37c9e592",
+            "07e547d9586f6a73f73fbac0435ed76951218fb7d0c8d788a309d785436bbb642e93a252a954f23912547d1e8a3b5ed6e1bfd7097821233fa0538f3db854fee6",
+            "9e107d9d372bb6826bd81d3542a419d6"};
+    private static final String URL = "http://repo/org/example/demo/1.0/demo-1.0.jar";
+    private static final byte[] CONTENT = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void checksums() throws IOException {
+        Path file = Files.createTempFile("mavenproxy", ".jar");
+        try {
+            Files.write(file, CONTENT);
+            assertArrayEquals(EXPECTED, Utils.checksums(file, Checksum.algorithms()));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void concurrentAtomicWrites(@TempDir Path dir) throws IOException {
+        Path target = dir.resolve("demo-1.0.jar.sha1");
+        IntStream.range(0, 200).parallel().forEach(i -> {
+            try {
+                Utils.writeAtomically(target, CONTENT);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        assertArrayEquals(CONTENT, Files.readAllBytes(target));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void resumedWithRange(@TempDir Path dir) throws IOException {
+        FakeUpstream upstream = new FakeUpstream().file(URL, CONTENT).truncate(URL, 10);
+        Path target = dir.resolve("demo-1.0.jar.part");
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+        long[] announced = new long[1];
+
+        assertArrayEquals(EXPECTED, Utils.loadToFile(upstream, URL, target, contentLength -> {
+            announced[0] = contentLength;
+            return client;
+        }, 1, Checksum.algorithms()));
+        assertEquals(Arrays.asList(URL, URL + " bytes=10-"), upstream.requests);
+        assertArrayEquals(CONTENT, Files.readAllBytes(target));
+        assertArrayEquals(CONTENT, client.toByteArray());
+        assertEquals(CONTENT.length, announced[0]);
+    }
+
+    @Test
+    void restartedWithoutRangeSupport(@TempDir Path dir) throws IOException {
+        FakeUpstream upstream = new FakeUpstream().file(URL, CONTENT).truncate(URL, 10);
+        upstream.ranges = false;
+        Path target = dir.resolve("demo-1.0.jar.part");
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+
+        assertArrayEquals(EXPECTED, Utils.loadToFile(upstream, URL, target, contentLength -> client, 1, Checksum.algorithms()));
+        assertEquals(Arrays.asList(URL, URL + " bytes=10-"), upstream.requests);
+        assertArrayEquals(CONTENT, Files.readAllBytes(target));
+        assertArrayEquals(Arrays.copyOf(CONTENT, 10), client.toByteArray()); //the client can't take back the start
+    }
+
+    @Test
+    void existingPrefixIsHashed(@TempDir Path dir) throws IOException {
+        FakeUpstream upstream = new FakeUpstream().file(URL, CONTENT);
+        Path target = dir.resolve("demo-1.0.jar.part");
+        Files.write(target, Arrays.copyOf(CONTENT, 10));
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+
+        assertArrayEquals(EXPECTED, Utils.loadToFile(upstream, URL, target, contentLength -> client, 0, Checksum.algorithms()));
+        assertEquals(Collections.singletonList(URL + " bytes=10-"), upstream.requests);
+        assertArrayEquals(CONTENT, Files.readAllBytes(target));
+        assertArrayEquals(CONTENT, client.toByteArray());
+    }
+
+    @Test
+    void unsatisfiableRangeIsReloaded(@TempDir Path dir) throws IOException {
+        FakeUpstream upstream = new FakeUpstream().file(URL, CONTENT);
+        Path target = dir.resolve("demo-1.0.jar.part");
+        Files.write(target, new byte[CONTENT.length + 5]); //the remote file shrank
+
+        assertArrayEquals(EXPECTED, Utils.loadToFile(upstream, URL, target, Checksum.algorithms()));
+        assertEquals(Arrays.asList(URL + " bytes=" + (CONTENT.length + 5) + "-", URL), upstream.requests);
+        assertArrayEquals(CONTENT, Files.readAllBytes(target));
+    }
+
+    @Test
+    void brokenOffWithoutResumes(@TempDir Path dir) {
+        FakeUpstream upstream = new FakeUpstream().file(URL, CONTENT).truncate(URL, 10);
+        Path target = dir.resolve("demo-1.0.jar.part");
+
+        assertThrows(EOFException.class, () -> Utils.loadToFile(upstream, URL, target, null, 0, Checksum.algorithms()));
+        assertEquals(Collections.singletonList(URL), upstream.requests);
+        assertTrue(Files.exists(target)); //kept to resume it later
+    }
+}
@@ -0,0 +1,62 @@
+package de.mheinzerling.mavenproxy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WarmupTest {
+
+    @Test
+    void lockfile(@TempDir Path dir) throws IOException {
+        Path lockfile = dir.resolve("gradle.lockfile");
+        Files.write(lockfile, ("# This is a Gradle generated file for dependency locking.\n" +
+                "# Manual edits can break the build and are not advised.\n" +
+                "# This file is expected to be part of source control.\n" +
+                "org.example:demo:1.0=compileClasspath,runtimeClasspath\n" +
+                "org.example.group:other:2.0.1=testRuntimeClasspath\n" +
+                "empty=annotationProcessor\n").getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(Arrays.asList("/org/example/demo/1.0/", "/org/example/group/other/2.0.1/"),
+                new ArrayList<>(Warmup.directories(lockfile)));
+    }
+
+    @Test
+    void verificationMetadata(@TempDir Path dir) throws IOException {
+        Path metadata = dir.resolve("verification-metadata.xml");
+        Files.write(metadata, ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<verification-metadata xmlns=\"https://schema.gradle.org/dependency-verification\">\n" +
+                "  <configuration><verify-metadata>true</verify-metadata><verify-signatures>false</verify-signatures></configuration>\n" +
+                "  <components>\n" +
+                "    <component group=\"org.example\" name=\"demo\" version=\"1.0\">\n" +
+                "      <artifact name=\"demo-1.0.jar\"><sha256 value=\"00\" origin=\"Generated by Gradle\"/></artifact>\n" +
+                "    </component>\n" +
+                "    <component group=\"org.example.group\" name=\"other\" version=\"2.0.1\"/>\n" +
+                "  </components>\n" +
+                "</verification-metadata>\n").getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(Arrays.asList("/org/example/demo/1.0/", "/org/example/group/other/2.0.1/"),
+                new ArrayList<>(Warmup.directories(metadata)));
+    }
+
+    @Test
+    void coordinates(@TempDir Path dir) throws IOException {
+        Path coordinates = dir.resolve("coordinates.txt");
+        Files.write(coordinates, ("# dependencies of the build\n" +
+                "org.example:demo:1.0\n" +
+                "\n" +
+                "  org.example.group:other:2.0.1@zip  \n" +
+                "org.example:classified:3:jdk8\n" +
+                "org.example:incomplete\n").getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(Arrays.asList("/org/example/demo/1.0/", "/org/example/group/other/2.0.1/", "/org/example/classified/3/"),
+                new ArrayList<>(Warmup.directories(coordinates)));
+    }
+}